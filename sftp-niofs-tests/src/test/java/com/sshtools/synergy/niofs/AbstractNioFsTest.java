@@ -6,6 +6,7 @@ import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Random;
 
 import org.junit.After;
@@ -101,18 +102,31 @@ public abstract class AbstractNioFsTest {
 	}
 
 	protected void testWithFilesystem(FsTestTask task) throws Exception {
+		testWithFilesystem(Map.of(), task);
+	}
+
+	protected void testWithFilesystem(Map<String, ?> env, FsTestTask task) throws Exception {
 		try (var ssh = SshClientBuilder.create().
 				withTarget("localhost", port).
 				withUsername("test").
 				withPassword("test").
 				build()) {
 			var sftp = SftpClientBuilder.create().withClient(ssh).build();
-			try(var fs = SftpFileSystems.newFileSystem(sftp)) {
+			try(var fs = SftpFileSystems.newFileSystem(sftp, sftp.pwd(), env)) {
 				task.test((SftpFileSystem)fs);
 			}
 		}
 	}
 
+	protected void testWithOtherFilesystem(SftpFileSystem fs, String path, Map<String, ?> env, FsTestTask task) throws Exception {
+		var sftp = fs.getSftp();
+		try (var other = SftpClientBuilder.create().withConnection(sftp.getSubsystemChannel().getConnection()).build()) {
+			try(var otherFs = SftpFileSystems.newFileSystem(other, other.pwd() + "/" + path, env)) {
+				task.test((SftpFileSystem)otherFs);
+			}
+		}
+	}
+
 	@After
 	public void teardownSshd() {
 		try {
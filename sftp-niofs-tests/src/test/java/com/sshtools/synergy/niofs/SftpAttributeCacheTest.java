@@ -0,0 +1,217 @@
+package com.sshtools.synergy.niofs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.sshtools.client.sftp.SftpChannel;
+
+public class SftpAttributeCacheTest extends AbstractNioFsTest {
+
+	private final static Map<String, Object> CACHED = Map.of(SftpFileSystemProvider.ATTRIBUTE_CACHE_TTL, 60000);
+
+	@Test
+	public void testCachedAttributes() throws Exception {
+		testWithFilesystem(CACHED, fs -> {
+			var file = fs.getPath("testfile");
+			createRandomContent(file);
+			assertEquals(1024, Files.size(file));
+			removeBehindCache(fs, file);
+			assertTrue("Should still exist in cache", Files.exists(file));
+			assertEquals(1024, Files.size(file));
+		});
+	}
+
+	@Test
+	public void testDisabledByDefault() throws Exception {
+		testWithFilesystem(fs -> {
+			var file = fs.getPath("testfile");
+			createRandomContent(file);
+			assertEquals(1024, Files.size(file));
+			removeBehindCache(fs, file);
+			assertFalse("Should not exist", Files.exists(file));
+		});
+	}
+
+	@Test
+	public void testExpires() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.ATTRIBUTE_CACHE_TTL, 100), fs -> {
+			var file = fs.getPath("testfile");
+			createRandomContent(file);
+			assertTrue(Files.exists(file));
+			removeBehindCache(fs, file);
+			Thread.sleep(200);
+			assertFalse("Should have expired", Files.exists(file));
+		});
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.ATTRIBUTE_CACHE_TTL, 60000, SftpFileSystemProvider.ATTRIBUTE_CACHE_SIZE, 1), fs -> {
+			var file1 = fs.getPath("testfile1");
+			var file2 = fs.getPath("testfile2");
+			createRandomContent(file1);
+			createRandomContent(file2);
+			assertTrue(Files.exists(file1));
+			assertTrue(Files.exists(file2));
+			removeBehindCache(fs, file1);
+			removeBehindCache(fs, file2);
+			assertFalse("Should have been evicted", Files.exists(file1));
+			assertTrue("Should still exist in cache", Files.exists(file2));
+		});
+	}
+
+	@Test
+	public void testInvalidatedOnDelete() throws Exception {
+		testWithFilesystem(CACHED, fs -> {
+			var file = fs.getPath("testfile");
+			createRandomContent(file);
+			assertTrue(Files.exists(file));
+			Files.delete(file);
+			assertFalse("Should not exist", Files.exists(file));
+		});
+	}
+
+	@Test
+	public void testInvalidatedOnWrite() throws Exception {
+		testWithFilesystem(CACHED, fs -> {
+			var file = fs.getPath("testfile");
+			createRandomContent(file);
+			assertEquals(1024, Files.size(file));
+			Files.write(file, new byte[10]);
+			assertEquals(10, Files.size(file));
+		});
+	}
+
+	@Test
+	public void testInvalidatedOnChannelWriteBeforeClose() throws Exception {
+		testWithFilesystem(CACHED, fs -> {
+			var file = fs.getPath("testfile");
+			createRandomContent(file);
+			try (var chan = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				assertEquals(1024, Files.size(file));
+				chan.write(ByteBuffer.wrap(new byte[10]), 1024);
+				assertEquals(1034, Files.size(file));
+				chan.write(ByteBuffer.wrap(new byte[10]), 1034);
+				assertEquals(1044, Files.size(file));
+			}
+		});
+	}
+
+	@Test
+	public void testInvalidatedOnAsyncChannelWriteBeforeClose() throws Exception {
+		testWithFilesystem(CACHED, fs -> {
+			var file = fs.getPath("testfile");
+			createRandomContent(file);
+			try (var chan = AsynchronousFileChannel.open(file, StandardOpenOption.WRITE)) {
+				assertEquals(1024, Files.size(file));
+				chan.write(ByteBuffer.wrap(new byte[10]), 1024).get();
+				assertEquals(1034, Files.size(file));
+				chan.write(ByteBuffer.wrap(new byte[10]), 1034).get();
+				assertEquals(1044, Files.size(file));
+			}
+		});
+	}
+
+	@Test
+	public void testInvalidatedOnMove() throws Exception {
+		testWithFilesystem(CACHED, fs -> {
+			var dir = Files.createDirectory(fs.getPath("dir"));
+			var file = dir.resolve("testfile");
+			createRandomContent(file);
+			assertTrue(Files.exists(file));
+			Files.move(dir, fs.getPath("dir2"));
+			assertFalse("Moved child should not exist", Files.exists(file));
+			assertTrue("Moved child should exist", Files.exists(fs.getPath("dir2/testfile")));
+		});
+	}
+
+	@Test
+	public void testInvalidatedOnCreateDirectory() throws Exception {
+		testWithFilesystem(CACHED, fs -> {
+			var dir = fs.getPath("dir");
+			assertFalse(Files.exists(dir));
+			Files.createDirectory(dir);
+			assertTrue("Should be a directory", Files.isDirectory(dir));
+		});
+	}
+
+	@Test
+	public void testInvalidatedOnSetAttribute() throws Exception {
+		testWithFilesystem(CACHED, fs -> {
+			var file = fs.getPath("testfile");
+			createRandomContent(file);
+			Files.getLastModifiedTime(file);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(1000000000000l));
+			assertEquals(1000000000000l, Files.getLastModifiedTime(file).toMillis());
+		});
+	}
+
+	@Test
+	public void testMissingCached() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.MISSING_CACHE_TTL, 60000), fs -> {
+			var file = fs.getPath("testfile");
+			assertFalse(Files.exists(file));
+			createBehindCache(fs, file);
+			assertFalse("Should still be missing in cache", Files.exists(file));
+		});
+	}
+
+	@Test
+	public void testMissingExpires() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.MISSING_CACHE_TTL, 100), fs -> {
+			var file = fs.getPath("testfile");
+			assertFalse(Files.exists(file));
+			createBehindCache(fs, file);
+			Thread.sleep(200);
+			assertTrue("Should have expired", Files.exists(file));
+		});
+	}
+
+	@Test
+	public void testMissingInvalidatedOnCreate() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.MISSING_CACHE_TTL, 60000), fs -> {
+			var file = fs.getPath("testfile");
+			var dir = fs.getPath("dir");
+			assertFalse(Files.exists(file));
+			assertFalse(Files.exists(dir));
+			createRandomContent(file);
+			Files.createDirectory(dir);
+			assertTrue("Created file should exist", Files.exists(file));
+			assertTrue("Created directory should exist", Files.isDirectory(dir));
+		});
+	}
+
+	@Test
+	public void testMissingInvalidatedOnMove() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.MISSING_CACHE_TTL, 60000), fs -> {
+			var file = fs.getPath("testfile");
+			var target = fs.getPath("testfile2");
+			createRandomContent(file);
+			assertFalse(Files.exists(target));
+			Files.move(file, target);
+			assertTrue("Moved file should exist", Files.exists(target));
+			assertFalse("Original should not exist", Files.exists(file));
+		});
+	}
+
+	private void createBehindCache(SftpFileSystem fs, Path file) throws Exception {
+		fs.getSftp().openFile(file.toAbsolutePath().toString(),
+				SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE).close();
+	}
+
+	private void removeBehindCache(SftpFileSystem fs, Path file) throws Exception {
+		fs.getSftp().rm(file.toAbsolutePath().toString());
+	}
+}
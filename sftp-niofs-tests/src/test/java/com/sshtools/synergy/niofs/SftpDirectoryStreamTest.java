@@ -2,6 +2,7 @@ package com.sshtools.synergy.niofs;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -9,6 +10,9 @@ import java.nio.file.ClosedDirectoryStreamException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.junit.Test;
@@ -32,6 +36,74 @@ public class SftpDirectoryStreamTest extends AbstractNioFsTest {
 			assertEquals("Should be 100 .txt files", 100, found);
 		});
 	}
+	@Test
+	public void testIterateGlob() throws Exception {
+
+		testWithFilesystem(fs -> {
+			for(int i = 0 ; i < 100 ; i++) {
+				Files.createFile(fs.getPath("testfile" + i + (i % 10 == 0 ? ".txt" : ".jar")));
+			}
+			var found = new HashSet<String>();
+			try(var str = SftpFileSystems.newDirectoryStream(fs.getPath("."), "testfile*.{txt,zip}")) {
+				for(var f : str) {
+					found.add(f.getFileName().toString());
+				}
+			}
+			assertEquals("Should be 10 .txt files", 10, found.size());
+			assertTrue("Should only be .txt files", found.stream().allMatch(f -> f.endsWith(".txt")));
+		});
+	}
+
+	@Test
+	public void testEntriesCarryListingAttributes() throws Exception {
+
+		testWithFilesystem(Map.of(SftpFileSystemProvider.LISTING_ATTRIBUTES_TTL, 5000), fs -> {
+			var dir = Files.createDirectory(fs.getPath("dir"));
+			var file = dir.resolve("testfile1");
+			createRandomContent(file);
+			Path entry;
+			try(var str = Files.newDirectoryStream(dir, "testfile1")) {
+				entry = str.iterator().next();
+			}
+			/* Removed behind the file system's back, so any STAT would fail */
+			fs.getSftp().rm(file.toAbsolutePath().toString());
+			assertEquals("Size should come from listing without a STAT", 1024, Files.size(entry));
+			assertTrue("Should be a regular file from listing without a STAT", Files.isRegularFile(entry));
+		});
+	}
+
+	@Test
+	public void testEntriesListingAttributesInvalidatedByChange() throws Exception {
+
+		testWithFilesystem(Map.of(SftpFileSystemProvider.LISTING_ATTRIBUTES_TTL, 5000), fs -> {
+			var dir = Files.createDirectory(fs.getPath("dir"));
+			var file = dir.resolve("testfile1");
+			createRandomContent(file);
+			Path entry;
+			try(var str = Files.newDirectoryStream(dir, "testfile1")) {
+				entry = str.iterator().next();
+			}
+			Files.delete(entry);
+			assertFalse("Deleted entry should not exist", Files.exists(entry));
+		});
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testEntriesListingAttributesDisabled() throws Exception {
+
+		testWithFilesystem(Map.of(SftpFileSystemProvider.LISTING_ATTRIBUTES_TTL, 0), fs -> {
+			var dir = Files.createDirectory(fs.getPath("dir"));
+			var file = dir.resolve("testfile1");
+			createRandomContent(file);
+			Path entry;
+			try(var str = Files.newDirectoryStream(dir, "testfile1")) {
+				entry = str.iterator().next();
+			}
+			fs.getSftp().rm(file.toAbsolutePath().toString());
+			Files.size(entry);
+		});
+	}
+
 	@Test(expected = ClosedDirectoryStreamException.class)
 	public void testFailIterateWhenClosed() throws Exception {
 
@@ -69,7 +141,7 @@ public class SftpDirectoryStreamTest extends AbstractNioFsTest {
 			}
 		});
 	}
-	@Test(expected = UncheckedIOException.class)
+	@Test(expected = NoSuchElementException.class)
 	public void testFailIterateMissingAfterStream() throws Exception {
 
 		testWithFilesystem(fs -> {
@@ -8,6 +8,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -16,6 +17,7 @@ import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.nio.file.attribute.UserPrincipal;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -23,12 +25,16 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
 import com.sshtools.common.sftp.PosixPermissions.PosixPermissionsBuilder;
 import com.sshtools.synergy.niofs.SftpFileAttributeViews.ExtendedSftpFileAttributeView;
 import com.sshtools.synergy.niofs.SftpFileAttributeViews.ExtendedSftpFileAttributes;
+import com.sshtools.synergy.niofs.SftpFileAttributeViews.UnifiedSftpFileAttributeView;
+import com.sshtools.synergy.niofs.SftpFileAttributeViews.UnifiedSftpFileAttributes;
 
 public class SftpFileAttributeViewsTest extends AbstractNioFsTest {
 	public interface FakeBasicFileAttributes extends BasicFileAttributes { }
@@ -225,6 +231,22 @@ public class SftpFileAttributeViewsTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testBasicAttributesSetLastModifiedTimeOnly() throws Exception {
+		testWithFilesystem(fs -> {
+			var path = fs.getPath("testfile0");
+			Files.createFile(path);
+			var view = Files.getFileAttributeView(path, BasicFileAttributeView.class);
+			var accessed = FileTime.fromMillis(1_000_000_000_000L);
+			var modified = FileTime.fromMillis(1_100_000_000_000L);
+			view.setTimes(null, accessed, null);
+			view.setTimes(modified, null, null);
+			var attr = view.readAttributes();
+			assertEquals(modified, attr.lastModifiedTime());
+			assertEquals("Access time should be unchanged", accessed, attr.lastAccessTime());
+		});
+	}
+
 	@Test(expected = UnsupportedOperationException.class)
 	public void testBasicAttributesSetBadAttribute() throws Exception {
 		testWithFilesystem(fs -> {
@@ -348,6 +370,43 @@ public class SftpFileAttributeViewsTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testBasicAttributesNoFollowLinks() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile");
+			createRandomContent(src);
+			var link = fs.getPath("testlink");
+			Files.createSymbolicLink(link, src);
+			var attr = Files.readAttributes(link, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			assertTrue("Should be a symbolic link", attr.isSymbolicLink());
+			assertTrue("Should be a symbolic link", Files.isSymbolicLink(link));
+			assertFalse("Should not be a regular file", (Boolean)Files.getAttribute(link, "isRegularFile", LinkOption.NOFOLLOW_LINKS));
+		});
+	}
+
+	@Test
+	public void testBasicAttributesOfBrokenSymbolicLinkCached() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.ATTRIBUTE_CACHE_TTL, 60000,
+				SftpFileSystemProvider.MISSING_CACHE_TTL, 60000), fs -> {
+			var src = fs.getPath("testfile");
+			Files.createFile(src);
+			var link = fs.getPath("testlink");
+			Files.createSymbolicLink(link, src);
+			Files.delete(src);
+			assertFalse("Link target should not exist", Files.exists(link));
+			assertTrue("Link should exist", Files.exists(link, LinkOption.NOFOLLOW_LINKS));
+			assertTrue("Should be a symbolic link", Files.readAttributes(link, BasicFileAttributes.class).isSymbolicLink());
+			assertTrue("Target should not exist", Files.notExists(src));
+		});
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testBasicAttributesOfMissingFileNoFollowLinks() throws Exception {
+		testWithFilesystem(fs -> {
+			Files.readAttributes(fs.getPath("testfile"), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		});
+	}
+
 	@Test(expected = NoSuchFileException.class)
 	public void testBasicAttributesOfMissingFile() throws Exception {
 		testWithFilesystem(fs -> {
@@ -831,4 +890,70 @@ public class SftpFileAttributeViewsTest extends AbstractNioFsTest {
 			assertEquals(ft, Files.getAttribute(path, "posix:lastModifiedTime"));
 		});
 	}
+
+	@Test
+	public void testUnifiedAttributesOnFile() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile");
+			createRandomContent(src);
+			var attr = Files.readAttributes(src, UnifiedSftpFileAttributes.class);
+			fs.getSftp().rm(src.toAbsolutePath().toString());
+			assertTrue("Should be a regular file", attr.isRegularFile());
+			assertEquals(1024, attr.size());
+			assertNotNull(attr.uid());
+			assertNotNull(attr.maskString());
+			assertEquals("Posix attributes should come from the same request", attr.permissions().asPermissions(),
+					attr.posix().permissions());
+			assertEquals(attr.uid(), attr.posix().owner().getName());
+			assertEquals(1024, attr.attributes().size().longValue());
+		});
+	}
+
+	@Test
+	public void testUnifiedAttributesMap() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile");
+			createRandomContent(src);
+			var attr = Files.readAttributes(src, "unified:*");
+			assertEquals(1024L, attr.get("size"));
+			assertNotNull(attr.get("owner"));
+			assertNotNull(attr.get("uid"));
+			assertNotNull(attr.get("maskString"));
+			assertTrue("Permissions should be the posix attribute", attr.get("permissions") instanceof Set);
+		});
+	}
+
+	@Test
+	public void testUnifiedAttributesView() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile");
+			createRandomContent(src);
+			var view = Files.getFileAttributeView(src, UnifiedSftpFileAttributeView.class);
+			assertEquals("unified", view.name());
+			var perms = PosixFilePermissions.fromString("rw-------");
+			Files.setAttribute(src, "unified:permissions", perms);
+			assertEquals(perms, view.readAttributes().posix().permissions());
+			var ft = FileTime.from(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+			Files.setAttribute(src, "unified:lastModifiedTime", ft);
+			assertEquals(ft, view.readAttributes().lastModifiedTime());
+		});
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testUnifiedAttributesOfMissingFile() throws Exception {
+		testWithFilesystem(fs -> {
+			Files.readAttributes(fs.getPath("testfile"), UnifiedSftpFileAttributes.class);
+		});
+	}
+
+	@Test
+	public void testPosixAttributesMapIncludesBasic() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile");
+			createRandomContent(src);
+			var attr = Files.readAttributes(src, "posix:size,owner");
+			assertEquals(1024L, attr.get("size"));
+			assertNotNull(attr.get("owner"));
+		});
+	}
 }
@@ -210,6 +210,7 @@ public class SftpFileStoreTest extends AbstractNioFsTest {
 			assertTrue("Basic attributes should be supported", store.supportsFileAttributeView("basic"));
 			assertTrue("Sftp attributes should be supported", store.supportsFileAttributeView("sftp"));
 			assertTrue("Posix attributes should be supported", store.supportsFileAttributeView("posix"));
+			assertTrue("Unified attributes should be supported", store.supportsFileAttributeView("unified"));
 			assertFalse("Xxxxxxx attributes should not be supported", store.supportsFileAttributeView("xxxxxxx"));
 			assertTrue("Basic attributes view should be supported",
 					store.supportsFileAttributeView(BasicFileAttributeView.class));
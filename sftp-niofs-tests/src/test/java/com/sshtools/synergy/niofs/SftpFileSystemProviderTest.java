@@ -1,7 +1,9 @@
 package com.sshtools.synergy.niofs;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
@@ -10,8 +12,10 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.OverlappingFileLockException;
@@ -25,13 +29,26 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
 import com.sshtools.common.policy.FileSystemPolicy;
 import com.sshtools.common.sftp.PosixPermissions.PosixPermissionsBuilder;
 import com.sshtools.common.sftp.extensions.BasicSftpExtensionFactory;
+import com.sshtools.common.sftp.extensions.CopyDataSftpExtension;
 import com.sshtools.common.sftp.extensions.CopyFileSftpExtension;
 
 public class SftpFileSystemProviderTest extends AbstractNioFsTest {
@@ -177,6 +194,98 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testCopyRemoteToRemotePipelined() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000, SftpFileSystemProvider.TRANSFER_WINDOW, 4), fs -> {
+			var src = fs.getPath("testfile1");
+			createRandomContent(src, 65536 + 123);
+
+			Path dest = fs.getPath("testfile1.copy");
+			Files.copy(src, dest);
+			assertEquals(Files.size(src), Files.size(dest));
+			assertTrue("Files should have the same content", compareFiles(src, dest));
+		});
+	}
+
+	@Test
+	public void testCopyRemoteToRemoteUsingCopyDataExtension() throws Exception {
+		testWithFilesystem(fs -> {
+			var factory = new BasicSftpExtensionFactory(new CopyDataSftpExtension());
+			try {
+				currentContext.getPolicy(FileSystemPolicy.class).getSFTPExtensionFactories().add(factory);
+				var src = fs.getPath("testfile1");
+				createRandomContent(src, 65536 + 123);
+
+				Path dest = fs.getPath("testfile1.copy");
+				Files.copy(src, dest);
+				assertTrue("Files should have the same content", compareFiles(src, dest));
+			} finally {
+				currentContext.getPolicy(FileSystemPolicy.class).getSFTPExtensionFactories().remove(factory);
+			}
+		});
+	}
+
+	@Test
+	public void testCopyBetweenFilesystems() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile1");
+			createRandomContent(src, 65536 + 123);
+			Files.createDirectory(fs.getPath("mirror"));
+			testWithOtherFilesystem(fs, "mirror", Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000), fs2 -> {
+				var dest = fs2.getPath("testfile1.copy");
+				Files.copy(src, dest);
+				assertTrue("Files should have the same content", compareFiles(src, dest));
+				assertTrue("Copy should be in other file system", Files.exists(fs.getPath("mirror", "testfile1.copy")));
+			});
+		});
+	}
+
+	@Test(expected = FileAlreadyExistsException.class)
+	public void testFailCopyBetweenFilesystemsReplaceExisting() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile1");
+			createRandomContent(src);
+			Files.createDirectory(fs.getPath("mirror"));
+			testWithOtherFilesystem(fs, "mirror", Map.of(), fs2 -> {
+				var dest = fs2.getPath("testfile1.copy");
+				Files.createFile(dest);
+				Files.copy(src, dest);
+			});
+		});
+	}
+
+	@Test
+	public void testMoveBetweenFilesystems() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile1");
+			createRandomContent(src);
+			var content = Files.readAllBytes(src);
+			Files.createDirectory(fs.getPath("mirror"));
+			testWithOtherFilesystem(fs, "mirror", Map.of(), fs2 -> {
+				var dest = fs2.getPath("testfile1.new");
+				Files.move(src, dest);
+				assertFalse("Original file should not exist", Files.exists(src));
+				assertArrayEquals(content, Files.readAllBytes(dest));
+			});
+		});
+	}
+
+	@Test
+	public void testMoveBetweenFilesystemsKeepsLastModifiedTime() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile1");
+			createRandomContent(src);
+			var time = FileTime.fromMillis(1000000000000L);
+			Files.setLastModifiedTime(src, time);
+			Files.createDirectory(fs.getPath("mirror"));
+			testWithOtherFilesystem(fs, "mirror", Map.of(), fs2 -> {
+				var dest = fs2.getPath("testfile1.new");
+				Files.move(src, dest);
+				assertEquals(time, Files.getLastModifiedTime(dest));
+			});
+		});
+	}
+
 	@Test(expected = FileAlreadyExistsException.class)
 	public void testFailCopyRemoteToRemoteReplaceExisting() throws Exception {
 		testWithFilesystem(fs -> {
@@ -291,6 +400,57 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testCopyRemoteToLocalDirect() throws Exception {
+		var dest = Files.createTempFile("data", ".tmp");
+		Files.delete(dest);
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile1");
+			createRandomContent(src, 65536 + 123);
+			Files.setLastModifiedTime(src, FileTime.fromMillis(1_000_000_000_000L));
+
+			SftpFileSystems.copy(src, dest, StandardCopyOption.COPY_ATTRIBUTES);
+			assertTrue("Files should have the same content", compareFiles(src, dest));
+			assertEquals(Files.getLastModifiedTime(src), Files.getLastModifiedTime(dest));
+		});
+	}
+
+	@Test(expected = FileAlreadyExistsException.class)
+	public void testFailCopyRemoteToLocalDirect() throws Exception {
+		var dest = Files.createTempFile("data", ".tmp");
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile1");
+			createRandomContent(src);
+			SftpFileSystems.copy(src, dest);
+		});
+	}
+
+	@Test
+	public void testCopyLocalToRemoteDirect() throws Exception {
+		var src = Files.createTempFile("data", ".tmp");
+		createRandomContent(src, 65536 + 123);
+		Files.setLastModifiedTime(src, FileTime.fromMillis(1_000_000_000_000L));
+		testWithFilesystem(fs -> {
+			var dest = fs.getPath("testfile1.copy");
+			SftpFileSystems.copy(src, dest, StandardCopyOption.COPY_ATTRIBUTES);
+			assertTrue("Files should have the same content", compareFiles(src, dest));
+			assertEquals(Files.getLastModifiedTime(src), Files.getLastModifiedTime(dest));
+		});
+	}
+
+	@Test
+	public void testMoveLocalToRemoteDirect() throws Exception {
+		var src = Files.createTempFile("data", ".tmp");
+		createRandomContent(src);
+		var content = Files.readAllBytes(src);
+		testWithFilesystem(fs -> {
+			var dest = fs.getPath("testfile1.new");
+			SftpFileSystems.move(src, dest);
+			assertFalse("Original file should not exist", Files.exists(src));
+			assertArrayEquals(content, Files.readAllBytes(dest));
+		});
+	}
+
 	@Test
 	public void testHiddenFiles() throws Exception {
 		testWithFilesystem(fs -> {
@@ -458,6 +618,43 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testExistsWithoutException() throws Exception {
+		testWithFilesystem(fs -> {
+			var provider = fs.provider();
+			var src = fs.getPath("testfile");
+			assertFalse("File should not exist", provider.exists(src));
+			createRandomContent(src);
+			assertTrue("File should exist", provider.exists(src));
+
+			var link = fs.getPath("testlink");
+			Files.createSymbolicLink(link, src);
+			Files.delete(src);
+			assertFalse("Link target should not exist", provider.exists(link));
+			assertTrue("Link should exist", provider.exists(link, LinkOption.NOFOLLOW_LINKS));
+			assertTrue("Link should exist", SftpFileSystems.exists(link, LinkOption.NOFOLLOW_LINKS));
+		});
+	}
+
+	@Test
+	public void testReadAttributesIfExists() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile");
+			assertNull("Should be no attributes", SftpFileSystems.readAttributesIfExists(src, BasicFileAttributes.class));
+			createRandomContent(src);
+			var attrs = SftpFileSystems.readAttributesIfExists(src, PosixFileAttributes.class);
+			assertEquals(1024, attrs.size());
+			assertTrue("Should be a regular file", attrs.isRegularFile());
+		});
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testFailReadAttributesIfExistsUnsupported() throws Exception {
+		testWithFilesystem(fs -> {
+			fs.provider().readAttributesIfExists(fs.getPath("testfile"), DosFileAttributes.class);
+		});
+	}
+
 	@Test
 	public void testIsSameFileDifferentProviders() throws Exception {
 		var root1 = Paths.get("r1");
@@ -532,10 +729,96 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 		});
 	}
 
-	@Test(expected = UnsupportedOperationException.class)
+	@Test
 	public void testAsyncFileChannel() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000), fs -> {
+			var src = fs.getPath("testfile");
+			var data = new byte[64000];
+			new Random().nextBytes(data);
+
+			try (var chan = AsynchronousFileChannel.open(src, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				var writes = new ArrayList<Future<Integer>>();
+				for (int i = 0; i < data.length; i += 8000) {
+					writes.add(chan.write(ByteBuffer.wrap(data, i, 8000), i));
+				}
+				for (var w : writes)
+					assertEquals(8000, (int) w.get());
+				assertEquals(data.length, chan.size());
+			}
+			assertArrayEquals(data, Files.readAllBytes(src));
+
+			try (var chan = AsynchronousFileChannel.open(src, StandardOpenOption.READ)) {
+				var buffers = new ArrayList<ByteBuffer>();
+				var latch = new CountDownLatch(8);
+				var total = new AtomicInteger();
+				for (int i = 0; i < data.length; i += 8000) {
+					var bb = ByteBuffer.allocate(8000);
+					buffers.add(bb);
+					chan.read(bb, i, bb, new CompletionHandler<Integer, ByteBuffer>() {
+						@Override
+						public void completed(Integer result, ByteBuffer attachment) {
+							total.addAndGet(result);
+							latch.countDown();
+						}
+
+						@Override
+						public void failed(Throwable exc, ByteBuffer attachment) {
+							latch.countDown();
+						}
+					});
+				}
+				assertTrue(latch.await(30, TimeUnit.SECONDS));
+				assertEquals(data.length, total.get());
+				var out = new ByteArrayOutputStream();
+				for (var bb : buffers)
+					out.write(bb.array());
+				assertArrayEquals(data, out.toByteArray());
+				assertEquals(-1, (int) chan.read(ByteBuffer.allocate(10), data.length).get());
+			}
+		});
+	}
+
+	@Test
+	public void testAsyncFileChannelForceWaitsForWrites() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000), fs -> {
+			var src = fs.getPath("testfile");
+			var data = new byte[20500];
+			new Random().nextBytes(data);
+			var futures = new ArrayList<Future<Integer>>();
+			try (var chan = AsynchronousFileChannel.open(src, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				for (int i = 0; i < data.length; i += 2050)
+					futures.add(chan.write(ByteBuffer.wrap(data, i, 2050), i));
+				chan.force(true);
+				for (var f : futures)
+					assertTrue(f.isDone());
+			}
+			assertArrayEquals(data, Files.readAllBytes(src));
+		});
+	}
+
+	@Test
+	public void testAsyncFileChannelCloseFailsPending() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000), fs -> {
+			var src = fs.getPath("testfile");
+			var futures = new ArrayList<Future<Integer>>();
+			try (var chan = AsynchronousFileChannel.open(src, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				for (int i = 0; i < 20; i++)
+					futures.add(chan.write(ByteBuffer.allocate(2000), i * 2000));
+			}
+			for (var f : futures) {
+				try {
+					assertEquals(2000, (int) f.get(30, TimeUnit.SECONDS));
+				} catch (ExecutionException ee) {
+					assertTrue(ee.getCause() instanceof AsynchronousCloseException);
+				}
+			}
+		});
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testFailAsyncFileChannelAppend() throws Exception {
 		testWithFilesystem(fs -> {
-			AsynchronousFileChannel.open(fs.getPath("testfile"), StandardOpenOption.CREATE);
+			AsynchronousFileChannel.open(fs.getPath("testfile"), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
 		});
 	}
 
@@ -556,6 +839,37 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testFileChannelTransferLocalPipelined() throws Exception {
+		var local = Files.createTempFile("data", ".tmp");
+		var localCopy = Files.createTempFile("data", ".tmp");
+		try {
+			testWithFilesystem(Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000, SftpFileSystemProvider.TRANSFER_WINDOW, 4), fs -> {
+				var data = new byte[100500];
+				new Random().nextBytes(data);
+				Files.write(local, data);
+				var remote = fs.getPath("testfile");
+
+				try (var chanIn = FileChannel.open(local)) {
+					try (var chanOut = FileChannel.open(remote, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+						assertEquals(data.length, chanOut.transferFrom(chanIn, 0, data.length));
+					}
+				}
+				assertArrayEquals(data, Files.readAllBytes(remote));
+
+				try (var chanIn = FileChannel.open(remote)) {
+					try (var chanOut = FileChannel.open(localCopy, StandardOpenOption.WRITE)) {
+						assertEquals(data.length - 500, chanIn.transferTo(500, Long.MAX_VALUE, chanOut));
+					}
+				}
+				assertArrayEquals(Arrays.copyOfRange(data, 500, data.length), Files.readAllBytes(localCopy));
+			});
+		} finally {
+			Files.deleteIfExists(local);
+			Files.deleteIfExists(localCopy);
+		}
+	}
+
 	@Test
 	public void testFileChannelTransferToTruncatedWrite() throws Exception {
 		testWithFilesystem(fs -> {
@@ -649,6 +963,46 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testFileChannelConcurrentPositionalReads() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile");
+			var content = new byte[64 * 1024];
+			new Random().nextBytes(content);
+			Files.write(src, content);
+
+			try (var chan = FileChannel.open(src)) {
+				chan.position(10);
+				var errors = new AtomicInteger();
+				var threads = new ArrayList<Thread>();
+				for (int t = 0; t < 4; t++) {
+					var offset = t * 1024;
+					var thread = new Thread(() -> {
+						try {
+							for (int i = 0; i < 20; i++) {
+								var buf = ByteBuffer.allocateDirect(1024);
+								chan.read(buf, offset);
+								buf.flip();
+								var arr = new byte[buf.remaining()];
+								buf.get(arr);
+								if (!Arrays.equals(Arrays.copyOfRange(content, offset, offset + 1024), arr))
+									errors.incrementAndGet();
+							}
+						} catch (IOException e) {
+							errors.incrementAndGet();
+						}
+					});
+					threads.add(thread);
+					thread.start();
+				}
+				for (var thread : threads)
+					thread.join();
+				assertEquals("Positional reads should not interfere", 0, errors.get());
+				assertEquals("Positional reads should not move the position", 10, chan.position());
+			}
+		});
+	}
+
 	@Test(expected = IOException.class)
 	public void testFailFileChannelTransferFrom() throws Exception {
 		testWithFilesystem(fs -> {
@@ -760,6 +1114,108 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testReadAheadFileChannel() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.READ_AHEAD, 4, SftpFileSystemProvider.BLOCK_SIZE, 1000), fs -> {
+			var src = fs.getPath("testfile");
+			var data = new byte[100000];
+			new Random().nextBytes(data);
+			Files.write(src, data);
+
+			var out = new ByteArrayOutputStream();
+			var bb = ByteBuffer.allocate(700);
+			try (var chan = FileChannel.open(src, StandardOpenOption.READ)) {
+				while (chan.read(bb) != -1) {
+					bb.flip();
+					out.write(bb.array(), 0, bb.limit());
+					bb.clear();
+				}
+				assertArrayEquals(data, out.toByteArray());
+
+				/* Random access after sequential must still return the right data */
+				var one = ByteBuffer.allocate(10);
+				chan.read(one, 5000);
+				assertArrayEquals(Arrays.copyOfRange(data, 5000, 5010), one.array());
+				one.clear();
+				chan.read(one, 99995);
+				assertEquals(5, one.position());
+				one.clear();
+				assertEquals(-1, chan.read(one));
+			}
+		});
+	}
+
+	@Test
+	public void testWriteBehindFileChannel() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.WRITE_BEHIND, 4, SftpFileSystemProvider.BLOCK_SIZE, 1000), fs -> {
+			var src = fs.getPath("testfile");
+			var data = new byte[100000];
+			new Random().nextBytes(data);
+
+			try (var chan = FileChannel.open(src, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+				for (int i = 0; i < data.length; i += 3000) {
+					chan.write(ByteBuffer.wrap(data, i, Math.min(3000, data.length - i)));
+				}
+				assertEquals(data.length, chan.size());
+
+				/* Reading back through the same channel must see everything written */
+				var bb = ByteBuffer.allocate(data.length);
+				chan.position(0);
+				while (bb.hasRemaining() && chan.read(bb) != -1);
+				assertArrayEquals(data, bb.array());
+			}
+			assertArrayEquals(data, Files.readAllBytes(src));
+		});
+	}
+
+	@Test
+	public void testDirectBufferFileChannel() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000), fs -> {
+			var src = fs.getPath("testfile");
+			var data = new byte[10000];
+			new Random().nextBytes(data);
+
+			try (var chan = FileChannel.open(src, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				var bb = ByteBuffer.allocateDirect(data.length);
+				bb.put(data);
+				bb.flip();
+				assertEquals(data.length, chan.write(bb));
+				assertFalse(bb.hasRemaining());
+			}
+
+			var out = new ByteArrayOutputStream();
+			try (var chan = FileChannel.open(src, StandardOpenOption.READ)) {
+				var bb = ByteBuffer.allocateDirect(3000);
+				var arr = new byte[3000];
+				while (chan.read(bb) != -1) {
+					bb.flip();
+					var n = bb.remaining();
+					bb.get(arr, 0, n);
+					out.write(arr, 0, n);
+					bb.clear();
+				}
+			}
+			assertArrayEquals(data, out.toByteArray());
+		});
+	}
+
+	@Test
+	public void testReadSliceFileChannel() throws Exception {
+		testWithFilesystem(fs -> {
+			var src = fs.getPath("testfile");
+			var data = new byte[1000];
+			new Random().nextBytes(data);
+			Files.write(src, data);
+
+			var backing = new byte[1200];
+			var bb = ByteBuffer.wrap(backing, 100, 1000).slice();
+			try (var chan = FileChannel.open(src, StandardOpenOption.READ)) {
+				while (bb.hasRemaining() && chan.read(bb) != -1);
+			}
+			assertArrayEquals(data, Arrays.copyOfRange(backing, 100, 1100));
+		});
+	}
+
 	@Test
 	public void testReadMulitBuffersFileChannel() throws Exception {
 		testWithFilesystem(fs -> {
@@ -772,7 +1228,7 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 			}
 			try (var chan = FileChannel.open(src, StandardOpenOption.READ)) {
 				while (sz > 0) {
-					var r = chan.read(bb, 0, (int)sz / 4);
+					var r = chan.read(bb, 0, bb.length);
 					if (r == -1)
 						break;
 					sz -= r;
@@ -802,7 +1258,7 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 			}
 			try (var chan = FileChannel.open(src, StandardOpenOption.WRITE)) {
 				while (sz > 0) {
-					var r = chan.write(bb, 0, (int)sz / 4);
+					var r = chan.write(bb, 0, bb.length);
 					if (r == -1)
 						break;
 					sz -= r;
@@ -814,6 +1270,40 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testScatterGatherSliceFileChannel() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000), fs -> {
+			var src = fs.getPath("testfile");
+			var header = "HEADER".getBytes();
+			var payload = new byte[5500];
+			new Random().nextBytes(payload);
+
+			var srcs = new ByteBuffer[] { ByteBuffer.wrap("IGNORED".getBytes()), ByteBuffer.wrap(header), ByteBuffer.wrap(payload), ByteBuffer.wrap("IGNORED".getBytes()) };
+			try (var chan = FileChannel.open(src, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				assertEquals(header.length + payload.length, chan.write(srcs, 1, 2));
+				assertEquals(header.length + payload.length, chan.position());
+				assertEquals(7, srcs[0].remaining());
+				assertEquals(7, srcs[3].remaining());
+			}
+
+			var expected = new byte[header.length + payload.length];
+			System.arraycopy(header, 0, expected, 0, header.length);
+			System.arraycopy(payload, 0, expected, header.length, payload.length);
+			assertArrayEquals(expected, Files.readAllBytes(src));
+
+			var dsts = new ByteBuffer[] { ByteBuffer.allocate(10), ByteBuffer.allocate(header.length), ByteBuffer.allocateDirect(payload.length), ByteBuffer.allocate(10) };
+			try (var chan = FileChannel.open(src, StandardOpenOption.READ)) {
+				assertEquals(header.length + payload.length, chan.read(dsts, 1, 2));
+				assertEquals(-1, chan.read(dsts, 3, 1));
+			}
+			assertEquals(0, dsts[0].position());
+			assertArrayEquals(header, dsts[1].array());
+			var actual = new byte[payload.length];
+			dsts[2].flip().get(actual);
+			assertArrayEquals(payload, actual);
+		});
+	}
+
 	@Test(expected = IOException.class)
 	public void testFailReadMulitBuffersFileChannelWhenClosed() throws Exception {
 		testWithFilesystem(fs -> {
@@ -826,7 +1316,7 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 			}
 			try (var chan = FileChannel.open(src, StandardOpenOption.READ)) {
 				chan.close();
-				chan.read(bb, 0, (int)sz / 4);
+				chan.read(bb, 0, bb.length);
 			}
 		});
 	}
@@ -843,7 +1333,7 @@ public class SftpFileSystemProviderTest extends AbstractNioFsTest {
 			}
 			try (var chan = FileChannel.open(src, StandardOpenOption.WRITE)) {
 				chan.close();
-				chan.write(bb, 0, (int)sz / 4);
+				chan.write(bb, 0, bb.length);
 			}
 		});
 	}
@@ -2,11 +2,21 @@ package com.sshtools.synergy.niofs;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.PatternSyntaxException;
 
 import org.junit.Test;
@@ -46,10 +56,11 @@ public class SftpFileSystemTest extends AbstractNioFsTest {
 			assertEquals(tmpDir.toString(), remotePath.toString());
 			assertTrue("The filesystem should be open", fs.isOpen());
 			assertFalse("The filesystem should not be read only", fs.isReadOnly());
-			assertTrue("The filesystem should have 3 attribute views", fs.supportedFileAttributeViews().size() == 3);
+			assertTrue("The filesystem should have 4 attribute views", fs.supportedFileAttributeViews().size() == 4);
 			assertTrue("The filesystem should have basic view", fs.supportedFileAttributeViews().contains("basic"));
 			assertTrue("The filesystem should have sftp view", fs.supportedFileAttributeViews().contains("sftp"));
 			assertTrue("The filesystem should have posix view", fs.supportedFileAttributeViews().contains("posix"));
+			assertTrue("The filesystem should have unified view", fs.supportedFileAttributeViews().contains("unified"));
 		});
 	}
 	
@@ -84,6 +95,33 @@ public class SftpFileSystemTest extends AbstractNioFsTest {
 		});
 	}
 
+	@Test
+	public void testSimpleGlobPatterns() throws Exception {
+		testWithFilesystem(fs -> {
+			var path = fs.getPath("/dir/sub/file.txt");
+			assertTrue(fs.getPathMatcher("glob:/dir/sub/file.txt").matches(path));
+			assertFalse(fs.getPathMatcher("glob:/dir/sub/file.tx").matches(path));
+			assertTrue(fs.getPathMatcher("glob:*.txt").matches(path));
+			assertTrue(fs.getPathMatcher("glob:*/sub/file.txt").matches(path));
+			assertFalse(fs.getPathMatcher("glob:*.jar").matches(path));
+			assertTrue(fs.getPathMatcher("glob:/dir/s*").matches(path));
+			assertFalse(fs.getPathMatcher("glob:dir/s*").matches(path));
+			assertTrue(fs.getPathMatcher("glob:/dir*.txt").matches(path));
+			assertFalse(fs.getPathMatcher("glob:/dir/sub/file*file.txt").matches(path));
+			assertTrue(fs.getPathMatcher("glob:*").matches(path));
+			assertTrue(fs.getPathMatcher("glob:*.txt").matches(path.getFileName()));
+			assertTrue(fs.getPathMatcher("glob:*.txt").matches(Paths.get("file.txt")));
+		});
+	}
+
+	@Test
+	public void testPathMatcherIsCached() throws Exception {
+		testWithFilesystem(fs -> {
+			assertSame(fs.getPathMatcher("glob:*.txt"), fs.getPathMatcher("glob:*.txt"));
+			assertSame(fs.getPathMatcher("regex:.*\\.txt"), fs.getPathMatcher("regex:.*\\.txt"));
+		});
+	}
+
 	@Test(expected = PatternSyntaxException.class)
 	public void testBadGlobPattern() throws Exception {
 		testWithFilesystem(fs -> {
@@ -189,4 +227,95 @@ public class SftpFileSystemTest extends AbstractNioFsTest {
 			fs.newWatchService();
 		});
 	}
+
+	@Test
+	public void testReadAttributesOfMany() throws Exception {
+		testWithFilesystem(fs -> {
+			var paths = new ArrayList<Path>();
+			for(int i = 0 ; i < 100 ; i++) {
+				var p = fs.getPath("testfile" + i);
+				createRandomContent(p);
+				paths.add(p);
+			}
+			var missing = fs.getPath("missing");
+			paths.add(missing);
+			var result = fs.readAttributes(paths);
+			assertFalse("Should not be successful", result.isSuccessful());
+			assertEquals(100, result.results().size());
+			assertTrue("All sizes should be 1024", result.results().values().stream().allMatch(a -> a.size() == 1024));
+			assertEquals(1, result.failures().size());
+			assertTrue("Missing should not exist", result.failures().get(missing) instanceof NoSuchFileException);
+		});
+	}
+
+	@Test
+	public void testReadAttributesOfManyType() throws Exception {
+		testWithFilesystem(fs -> {
+			var file = fs.getPath("testfile1");
+			createRandomContent(file);
+			var dir = Files.createDirectory(fs.getPath("dir"));
+			var result = fs.readAttributes(List.of(file, dir), PosixFileAttributes.class);
+			result.checkFailures();
+			assertTrue("Should be a regular file", result.results().get(file).isRegularFile());
+			assertTrue("Should be a directory", result.results().get(dir).isDirectory());
+		});
+	}
+
+	@Test
+	public void testReadAttributesOfManyWarmsCache() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.ATTRIBUTE_CACHE_TTL, 60000), fs -> {
+			var file = fs.getPath("testfile1");
+			createRandomContent(file);
+			fs.readAttributes(List.of(file)).checkFailures();
+			fs.getSftp().rm(file.toAbsolutePath().toString());
+			assertEquals("Size should come from cache", 1024, Files.size(file));
+		});
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testFailReadAttributesOfManyMissing() throws Exception {
+		testWithFilesystem(fs -> {
+			fs.readAttributes(List.of(fs.getPath("missing"))).checkFailures();
+		});
+	}
+
+	@Test
+	public void testApplyAttributes() throws Exception {
+		testWithFilesystem(fs -> {
+			var root = Files.createDirectories(fs.getPath("tree/dir1/sub"));
+			for(int i = 1 ; i <= 5 ; i++) {
+				createRandomContent(root.resolve("file" + i));
+				createRandomContent(root.getParent().resolve("file" + i));
+			}
+			var files = PosixFilePermissions.fromString("rw-r-----");
+			var dirs = PosixFilePermissions.fromString("rwxr-x---");
+			var result = fs.applyAttributes(fs.getPath("tree"), SftpAttributeMutation.permissions(files, dirs));
+			result.checkFailures();
+			assertEquals(13, result.results().size());
+			assertEquals(dirs, Files.getPosixFilePermissions(fs.getPath("tree")));
+			assertEquals(dirs, Files.getPosixFilePermissions(root));
+			assertEquals(files, Files.getPosixFilePermissions(root.resolve("file1")));
+			assertEquals(files, Files.getPosixFilePermissions(root.getParent().resolve("file5")));
+		});
+	}
+
+	@Test
+	public void testApplyAttributesSkipsUnchanged() throws Exception {
+		testWithFilesystem(fs -> {
+			var file = fs.getPath("testfile1");
+			createRandomContent(file);
+			var time = FileTime.fromMillis(1000000000000L);
+			var mutation = SftpAttributeMutation.lastModifiedTime(time);
+			assertEquals(1, fs.applyAttributes(file, mutation).results().size());
+			assertEquals(time, Files.getLastModifiedTime(file));
+			assertTrue("Nothing should be changed", fs.applyAttributes(file, mutation).results().isEmpty());
+		});
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testFailApplyAttributesMissing() throws Exception {
+		testWithFilesystem(fs -> {
+			fs.applyAttributes(fs.getPath("missing"), SftpAttributeMutation.owner("nobody"));
+		});
+	}
 }
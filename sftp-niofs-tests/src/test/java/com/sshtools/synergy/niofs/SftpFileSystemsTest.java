@@ -1,11 +1,20 @@
 package com.sshtools.synergy.niofs;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.net.ConnectException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
@@ -86,4 +95,55 @@ public class SftpFileSystemsTest extends AbstractNioFsTest {
 		}
 		assertTrue("testFile must exist", Files.exists(tmpDir.resolve("testFile")));
 	}
+
+	@Test
+	public void testSetLastModifiedTimes() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.REQUEST_WINDOW, 4), fs -> {
+			var times = new LinkedHashMap<Path, FileTime>();
+			for(int i = 0 ; i < 20 ; i++) {
+				var path = Files.createFile(fs.getPath("testfile" + i));
+				times.put(path, FileTime.fromMillis(1_000_000_000_000L + i * 1000));
+			}
+			var missing = fs.getPath("missing");
+			times.put(missing, FileTime.fromMillis(1_000_000_000_000L));
+
+			var result = SftpFileSystems.setLastModifiedTimes(times);
+
+			assertEquals(20, result.results().size());
+			assertEquals(Set.of(missing), result.failures().keySet());
+			assertTrue(result.failures().get(missing) instanceof NoSuchFileException);
+			for(var en : result.results().keySet()) {
+				assertEquals(times.get(en), Files.getLastModifiedTime(en));
+			}
+		});
+	}
+
+	@Test
+	public void testSetTimes() throws Exception {
+		testWithFilesystem(fs -> {
+			var paths = new ArrayList<Path>();
+			for(int i = 0 ; i < 10 ; i++) {
+				paths.add(Files.createFile(fs.getPath("testfile" + i)));
+			}
+			var modified = FileTime.fromMillis(1_000_000_000_000L);
+			var accessed = FileTime.fromMillis(1_100_000_000_000L);
+
+			var result = SftpFileSystems.setTimes(paths, modified, accessed, null);
+
+			assertTrue(result.isSuccessful());
+			result.checkFailures();
+			for(var path : paths) {
+				assertEquals(modified, Files.getLastModifiedTime(path));
+				assertEquals(accessed, Files.readAttributes(path, BasicFileAttributes.class).lastAccessTime());
+			}
+		});
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testFailSetTimesMissing() throws Exception {
+		testWithFilesystem(fs -> {
+			var paths = List.of(Files.createFile(fs.getPath("testfile")), fs.getPath("missing"));
+			SftpFileSystems.setTimes(paths, FileTime.fromMillis(1_000_000_000_000L), null, null).checkFailures();
+		});
+	}
 }
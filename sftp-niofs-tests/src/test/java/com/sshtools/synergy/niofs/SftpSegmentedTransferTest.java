@@ -0,0 +1,116 @@
+package com.sshtools.synergy.niofs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.sshtools.synergy.niofs.SftpSegmentedTransfer.SftpSegmentedTransferBuilder;
+
+public class SftpSegmentedTransferTest extends AbstractNioFsTest {
+
+	@Test
+	public void testDownload() throws Exception {
+		var local = Files.createTempFile("data", ".tmp");
+		try {
+			testWithFilesystem(Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000, SftpFileSystemProvider.MAX_CHANNELS, 2), fs -> {
+				var data = new byte[100500];
+				new Random().nextBytes(data);
+				var remote = fs.getPath("testfile");
+				Files.write(remote, data);
+
+				var progress = new AtomicLong();
+				var transfer = SftpSegmentedTransferBuilder.create().
+						withSegments(4).
+						withMinimumSegmentSize(1000).
+						withProgress(progress::addAndGet).
+						build();
+				assertEquals(data.length, transfer.download(remote, local, StandardCopyOption.REPLACE_EXISTING));
+				assertEquals(data.length, progress.get());
+				assertArrayEquals(data, Files.readAllBytes(local));
+			});
+		} finally {
+			Files.deleteIfExists(local);
+		}
+	}
+
+	@Test
+	public void testUpload() throws Exception {
+		var local = Files.createTempFile("data", ".tmp");
+		try {
+			testWithFilesystem(Map.of(SftpFileSystemProvider.BLOCK_SIZE, 1000, SftpFileSystemProvider.MAX_CHANNELS, 2), fs -> {
+				var data = new byte[100500];
+				new Random().nextBytes(data);
+				Files.write(local, data);
+				Files.setLastModifiedTime(local, FileTime.fromMillis(1000000000000l));
+
+				var remote = fs.getPath("testfile");
+				var progress = new AtomicLong();
+				var transfer = SftpSegmentedTransferBuilder.create().
+						withSegments(4).
+						withMinimumSegmentSize(1000).
+						withPreallocate().
+						withProgress(progress::addAndGet).
+						build();
+				assertEquals(data.length, transfer.upload(local, remote, StandardCopyOption.COPY_ATTRIBUTES));
+				assertEquals(data.length, progress.get());
+				assertArrayEquals(data, Files.readAllBytes(remote));
+				assertEquals(1000000000000l, Files.getLastModifiedTime(remote).toMillis());
+			});
+		} finally {
+			Files.deleteIfExists(local);
+		}
+	}
+
+	@Test
+	public void testUploadReplaceExistingLonger() throws Exception {
+		var local = Files.createTempFile("data", ".tmp");
+		try {
+			testWithFilesystem(fs -> {
+				var remote = fs.getPath("testfile");
+				Files.write(remote, new byte[5000]);
+				Files.write(local, "Short".getBytes());
+				SftpSegmentedTransferBuilder.create().build().upload(local, remote, StandardCopyOption.REPLACE_EXISTING);
+				assertArrayEquals("Short".getBytes(), Files.readAllBytes(remote));
+			});
+		} finally {
+			Files.deleteIfExists(local);
+		}
+	}
+
+	@Test(expected = FileAlreadyExistsException.class)
+	public void testFailUploadExisting() throws Exception {
+		var local = Files.createTempFile("data", ".tmp");
+		try {
+			testWithFilesystem(fs -> {
+				var remote = fs.getPath("testfile");
+				createRandomContent(remote);
+				SftpSegmentedTransferBuilder.create().build().upload(local, remote);
+			});
+		} finally {
+			Files.deleteIfExists(local);
+		}
+	}
+
+	@Test(expected = FileAlreadyExistsException.class)
+	public void testFailDownloadExisting() throws Exception {
+		var local = Files.createTempFile("data", ".tmp");
+		try {
+			testWithFilesystem(fs -> {
+				var remote = fs.getPath("testfile");
+				createRandomContent(remote);
+				SftpSegmentedTransferBuilder.create().build().download(remote, local);
+			});
+		} finally {
+			Files.deleteIfExists(local);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.sshtools.synergy.niofs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.sshtools.synergy.niofs.SftpTreeDeleter.SftpTreeDeleterBuilder;
+
+public class SftpTreeDeleterTest extends AbstractNioFsTest {
+
+	@Test
+	public void testDelete() throws Exception {
+		testWithFilesystem(fs -> {
+			var root = createTree(fs.getPath("tree"));
+			assertEquals(1 + 3 * 12, SftpFileSystems.deleteTree(root));
+			assertFalse("Tree should not exist", Files.exists(root));
+		});
+	}
+
+	@Test
+	public void testDeleteParallel() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.MAX_CHANNELS, 2, SftpFileSystemProvider.REQUEST_WINDOW, 4), fs -> {
+			var root = createTree(fs.getPath("tree"));
+			assertEquals(1 + 3 * 12, SftpTreeDeleterBuilder.create().withParallelism(3).build().delete(root));
+			assertFalse("Tree should not exist", Files.exists(root));
+		});
+	}
+
+	@Test
+	public void testDeleteFile() throws Exception {
+		testWithFilesystem(fs -> {
+			var file = fs.getPath("testfile1");
+			createRandomContent(file);
+			assertEquals(1, SftpFileSystems.deleteTree(file));
+			assertFalse("File should not exist", Files.exists(file));
+		});
+	}
+
+	@Test
+	public void testDeleteDoesNotFollowLinks() throws Exception {
+		testWithFilesystem(fs -> {
+			var root = createTree(fs.getPath("tree"));
+			var dir = Files.createDirectory(fs.getPath("dir"));
+			Files.createSymbolicLink(dir.resolve("link"), root.toAbsolutePath());
+			SftpFileSystems.deleteTree(dir);
+			assertFalse("Link should not exist", Files.exists(dir.resolve("link"), LinkOption.NOFOLLOW_LINKS));
+			assertTrue("Link target should still exist", Files.exists(root.resolve("dir1/sub/file1")));
+		});
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testFailMissing() throws Exception {
+		testWithFilesystem(fs -> {
+			SftpFileSystems.deleteTree(fs.getPath("missing"));
+		});
+	}
+
+	private Path createTree(Path root) throws Exception {
+		for(int i = 1 ; i <= 3 ; i++) {
+			var dir = Files.createDirectories(root.resolve("dir" + i).resolve("sub"));
+			for(int j = 1 ; j <= 5 ; j++) {
+				createRandomContent(dir.getParent().resolve("file" + j));
+				createRandomContent(dir.resolve("file" + j));
+			}
+		}
+		return root;
+	}
+}
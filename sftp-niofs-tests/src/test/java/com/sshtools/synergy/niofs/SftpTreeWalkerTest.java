@@ -0,0 +1,157 @@
+package com.sshtools.synergy.niofs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.sshtools.synergy.niofs.SftpTreeWalker.SftpTreeWalkerBuilder;
+
+public class SftpTreeWalkerTest extends AbstractNioFsTest {
+
+	@Test
+	public void testWalk() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.MAX_CHANNELS, 2), fs -> {
+			var root = createTree(fs.getPath("tree"));
+			var found = ConcurrentHashMap.<String>newKeySet();
+			SftpTreeWalkerBuilder.create().withParallelism(3).build().walk(root, p -> found.add(p.toString()));
+			assertEquals(expected(root, Integer.MAX_VALUE), found);
+		});
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		testWithFilesystem(fs -> {
+			var root = createTree(fs.getPath("tree"));
+			try(var stream = SftpFileSystems.walk(root)) {
+				assertEquals(expected(root, Integer.MAX_VALUE), stream.map(Path::toString).collect(Collectors.toSet()));
+			}
+		});
+	}
+
+	@Test
+	public void testStreamMaxDepth() throws Exception {
+		testWithFilesystem(fs -> {
+			var root = createTree(fs.getPath("tree"));
+			try(var stream = SftpTreeWalkerBuilder.create().withMaxDepth(1).build().stream(root)) {
+				assertEquals(expected(root, 1), stream.map(Path::toString).collect(Collectors.toSet()));
+			}
+		});
+	}
+
+	@Test
+	public void testPrune() throws Exception {
+		testWithFilesystem(fs -> {
+			var root = createTree(fs.getPath("tree"));
+			var walker = SftpTreeWalkerBuilder.create().
+					withPrune(p -> p.getFileName().toString().equals("dir1")).
+					build();
+			try(var stream = walker.stream(root)) {
+				var found = stream.map(Path::toString).collect(Collectors.toSet());
+				assertTrue("Pruned directory should be reported", found.contains(root.resolve("dir1").toString()));
+				assertTrue("Pruned directory should not be listed", found.stream().noneMatch(p -> p.contains("dir1/")));
+				assertTrue("Other directories should be listed", found.contains(root.resolve("dir2/file1").toString()));
+			}
+		});
+	}
+
+	@Test
+	public void testGlob() throws Exception {
+		testWithFilesystem(fs -> {
+			var root = createTree(fs.getPath("tree"));
+			try(var stream = SftpTreeWalkerBuilder.create().withGlob("dir1/**/file[12]").build().stream(root)) {
+				assertEquals(Set.of(
+						root.resolve("dir1/file1").toString(),
+						root.resolve("dir1/file2").toString(),
+						root.resolve("dir1/sub/file1").toString(),
+						root.resolve("dir1/sub/file2").toString()),
+					stream.map(Path::toString).collect(Collectors.toSet()));
+			}
+		});
+	}
+
+	@Test
+	public void testGlobSegmentsDoNotCrossDirectories() throws Exception {
+		testWithFilesystem(fs -> {
+			var root = createTree(fs.getPath("tree"));
+			try(var stream = SftpTreeWalkerBuilder.create().withGlob("*/sub/*5").build().stream(root)) {
+				assertEquals(Set.of(
+						root.resolve("dir1/sub/file5").toString(),
+						root.resolve("dir2/sub/file5").toString(),
+						root.resolve("dir3/sub/file5").toString()),
+					stream.map(Path::toString).collect(Collectors.toSet()));
+			}
+		});
+	}
+
+	@Test
+	public void testStreamEarlyClose() throws Exception {
+		testWithFilesystem(fs -> {
+			var root = createTree(fs.getPath("tree"));
+			try(var stream = SftpFileSystems.walk(root)) {
+				assertEquals(2, stream.limit(2).count());
+			}
+		});
+	}
+
+	@Test
+	public void testEntriesCarryAttributes() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.LISTING_ATTRIBUTES_TTL, 5000), fs -> {
+			var root = createTree(fs.getPath("tree"));
+			var file = root.resolve("dir2/file1");
+			Path found;
+			try(var stream = SftpFileSystems.walk(root)) {
+				found = stream.filter(p -> p.equals(file)).findFirst().get();
+			}
+			/* Removed behind the file system's back, so any STAT would fail */
+			fs.getSftp().rm(file.toAbsolutePath().toString());
+			assertEquals(1024, Files.size(found));
+		});
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testEntriesAttributesInvalidatedByDelete() throws Exception {
+		testWithFilesystem(Map.of(SftpFileSystemProvider.LISTING_ATTRIBUTES_TTL, 5000), fs -> {
+			var root = createTree(fs.getPath("tree"));
+			var file = root.resolve("dir2/file1");
+			Path found;
+			try(var stream = SftpFileSystems.walk(root)) {
+				found = stream.filter(p -> p.equals(file)).findFirst().get();
+			}
+			Files.delete(file);
+			Files.size(found);
+		});
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void testFailMissing() throws Exception {
+		testWithFilesystem(fs -> {
+			SftpTreeWalkerBuilder.create().build().walk(fs.getPath("missing"), p -> {});
+		});
+	}
+
+	private Path createTree(Path root) throws Exception {
+		for(int i = 1 ; i <= 3 ; i++) {
+			var dir = Files.createDirectories(root.resolve("dir" + i).resolve("sub"));
+			for(int j = 1 ; j <= 5 ; j++) {
+				createRandomContent(dir.getParent().resolve("file" + j));
+				createRandomContent(dir.resolve("file" + j));
+			}
+		}
+		return root;
+	}
+
+	private Set<String> expected(Path root, int maxDepth) throws Exception {
+		try(var stream = Files.walk(root, maxDepth)) {
+			return stream.map(Path::toString).collect(Collectors.toSet());
+		}
+	}
+}
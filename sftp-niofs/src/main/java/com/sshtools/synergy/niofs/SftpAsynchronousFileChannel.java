@@ -0,0 +1,529 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpHandle;
+import com.sshtools.common.sftp.SftpFileAttributes.SftpFileAttributesBuilder;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.ByteArrayWriter;
+
+/**
+ * An {@link AsynchronousFileChannel} that maps each operation directly on to
+ * pipelined SFTP requests. Requests are posted immediately by the calling
+ * thread, and a single task on the supplied {@link ExecutorService} collects
+ * the responses in the order they were posted while there are any outstanding,
+ * so any number of operations may be in flight without a thread per operation.
+ * Completion handlers are also invoked using the executor.
+ * <p>
+ * {@link #force(boolean)} waits for outstanding operations, then asks the
+ * server to flush the file if it supports the <code>fsync@openssh.com</code>
+ * extension. {@link #close()} fails any operations not yet completed with an
+ * {@link AsynchronousCloseException} before closing the handle.
+ */
+public final class SftpAsynchronousFileChannel extends AsynchronousFileChannel {
+
+	@FunctionalInterface
+	private interface Poster {
+		void post() throws SftpStatusException, SshException;
+	}
+
+	private abstract class Operation<V, A> {
+		final A attachment;
+		final CompletionHandler<V, ? super A> handler;
+		final Deque<SftpReadAhead.Request> requests = new ArrayDeque<>();
+
+		Operation(A attachment, CompletionHandler<V, ? super A> handler) {
+			this.attachment = attachment;
+			this.handler = handler;
+		}
+
+		abstract V reap() throws SftpStatusException, SshException;
+
+		void complete() {
+			V result = null;
+			Exception error = null;
+			try {
+				try {
+					result = reap();
+				} finally {
+					SftpReadAhead.discard(channel, requests);
+				}
+			} catch (SftpStatusException | SshException e) {
+				error = e;
+			}
+			if (error == null && !isOpen())
+				error = new AsynchronousCloseException();
+			dispatch(this, result, error);
+		}
+	}
+
+	private final static String FSYNC_EXTENSION = "fsync@openssh.com";
+
+	private final class ReadOperation<A> extends Operation<Integer, A> {
+		private final ByteBuffer dst;
+
+		ReadOperation(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+			super(attachment, handler);
+			this.dst = dst;
+		}
+
+		@Override
+		Integer reap() throws SftpStatusException, SshException {
+			var total = 0;
+			byte[] arr = null;
+			SftpReadAhead.Request req;
+			while ((req = requests.poll()) != null) {
+				var msg = channel.getResponse(req.requestId);
+				var len = SftpReadAhead.dataLength(channel, msg);
+				if (len == -1)
+					return total == 0 ? -1 : total;
+				try {
+					len = Math.min(len, req.length);
+					if (dst.hasArray()) {
+						msg.read(dst.array(), dst.arrayOffset() + dst.position(), len);
+						dst.position(dst.position() + len);
+					} else {
+						if (arr == null)
+							arr = new byte[Math.min(blockSize, dst.remaining())];
+						for (int r = len; r > 0;) {
+							var n = msg.read(arr, 0, Math.min(r, arr.length));
+							if (n < 1)
+								throw new SshException("Truncated data response.", SshException.CHANNEL_FAILURE);
+							dst.put(arr, 0, n);
+							r -= n;
+						}
+					}
+				} finally {
+					msg.release();
+				}
+				total += len;
+				if (len < req.length)
+					break;
+			}
+			return total;
+		}
+	}
+
+	private final class WriteOperation<A> extends Operation<Integer, A> {
+		WriteOperation(A attachment, CompletionHandler<Integer, ? super A> handler) {
+			super(attachment, handler);
+		}
+
+		@Override
+		Integer reap() throws SftpStatusException, SshException {
+			var total = 0;
+			SftpReadAhead.Request req;
+			while ((req = requests.poll()) != null) {
+				channel.getOKRequestStatus(req.requestId);
+				total += req.length;
+			}
+			return total;
+		}
+	}
+
+	private final Path path;
+	private final SftpHandle handle;
+	private final SftpChannel channel;
+	private final ExecutorService executor;
+	private final boolean deleteOnClose;
+	private final boolean readable;
+	private final boolean writable;
+	private final int blockSize;
+	private final SftpAttributeCache cache;
+	private final Deque<Operation<?, ?>> queue = new ArrayDeque<>();
+
+	private boolean open = true;
+	private boolean reaping;
+	private int completing;
+	/* The cache's observed count when the path was last invalidated by a write */
+	private volatile long invalidatedAt = -1;
+
+	SftpAsynchronousFileChannel(boolean deleteOnClose, boolean readable, boolean writable, Path path,
+			SftpHandle handle, SftpFileSystem fs, ExecutorService executor) {
+		this.deleteOnClose = deleteOnClose;
+		this.readable = readable;
+		this.writable = writable;
+		this.path = path;
+		this.handle = handle;
+		this.executor = executor;
+		this.channel = fs.getSftp().getSubsystemChannel();
+		this.blockSize = fs.getBlockSize();
+		this.cache = fs.getAttributeCache();
+	}
+
+	@Override
+	public boolean isOpen() {
+		synchronized (queue) {
+			return open;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		var cancelled = new ArrayList<Operation<?, ?>>();
+		synchronized (queue) {
+			if (!open)
+				return;
+			open = false;
+			cancelled.addAll(queue);
+			queue.clear();
+		}
+		/*
+		 * Consume the responses to requests already posted, so they are not left
+		 * behind on the channel. An operation the reaper is already completing
+		 * fails the same way once it sees the channel is closed.
+		 */
+		for (var op : cancelled) {
+			try {
+				SftpReadAhead.discard(channel, op.requests);
+			} catch (SshException e) {
+			}
+			dispatch(op, null, new AsynchronousCloseException());
+		}
+		try {
+			handle.close();
+		} finally {
+			if (writable)
+				SftpFileSystemProvider.invalidate(path);
+			if (deleteOnClose)
+				Files.delete(path);
+		}
+	}
+
+	@Override
+	public long size() throws IOException {
+		checkOpen();
+		try {
+			return handle.getAttributes().size().longValue();
+		} catch (SftpStatusException | SshException e) {
+			throw SftpFileSystemProvider.translateException(e);
+		}
+	}
+
+	@Override
+	public AsynchronousFileChannel truncate(long size) throws IOException {
+		if (size < 0)
+			throw new IllegalArgumentException("Negative size");
+		checkOpen();
+		if (!writable)
+			throw new NonWritableChannelException();
+		try {
+			invalidateIfObserved();
+			handle.setAttributes(SftpFileAttributesBuilder.create().withSize(size).build());
+			return this;
+		} catch (SftpStatusException | SshException e) {
+			throw SftpFileSystemProvider.translateException(e);
+		}
+	}
+
+	@Override
+	public void force(boolean metaData) throws IOException {
+		checkOpen();
+		/*
+		 * Complete queued operations on this thread rather than wait for the
+		 * reaper, which may be queued on the executor behind the caller.
+		 */
+		while (completeNext(false))
+			;
+		synchronized (queue) {
+			try {
+				while (completing > 0)
+					queue.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		checkOpen();
+		if (writable && channel.supportsExtension(FSYNC_EXTENSION)) {
+			try (var msg = new ByteArrayWriter()) {
+				msg.writeBinaryString(handle.getHandle());
+				channel.getOKRequestStatus(channel.sendExtensionMessage(FSYNC_EXTENSION, msg.toByteArray()));
+			} catch (SftpStatusException | SshException e) {
+				throw SftpFileSystemProvider.translateException(e);
+			}
+		}
+	}
+
+	@Override
+	public <A> void lock(long position, long size, boolean shared, A attachment,
+			CompletionHandler<FileLock, ? super A> handler) {
+		Objects.requireNonNull(handler);
+		checkLock(position, size, shared);
+		executor.execute(() -> {
+			try {
+				var lck = tryLock(position, size, shared);
+				handler.completed(lck, attachment);
+			} catch (Throwable e) {
+				handler.failed(e, attachment);
+			}
+		});
+	}
+
+	@Override
+	public Future<FileLock> lock(long position, long size, boolean shared) {
+		var future = new CompletableFuture<FileLock>();
+		lock(position, size, shared, null, futureHandler(future));
+		return future;
+	}
+
+	@Override
+	public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+		checkLock(position, size, shared);
+		checkOpen();
+		try {
+			var sftpLock = handle.lock(position, size,
+					shared ? SftpChannel.SSH_FXF_ACCESS_BLOCK_READ : SftpChannel.SSH_FXF_ACCESS_BLOCK_WRITE);
+			return new FileLock(this, position, size, shared) {
+				boolean closed = false;
+
+				@Override
+				public void release() throws IOException {
+					try {
+						sftpLock.close();
+					} finally {
+						closed = true;
+					}
+				}
+
+				@Override
+				public boolean isValid() {
+					return !closed && acquiredBy().isOpen();
+				}
+			};
+		} catch (SftpStatusException | SshException e) {
+			throw SftpFileSystemProvider.translateException(e);
+		}
+	}
+
+	@Override
+	public <A> void read(ByteBuffer dst, long position, A attachment,
+			CompletionHandler<Integer, ? super A> handler) {
+		Objects.requireNonNull(handler);
+		if (position < 0)
+			throw new IllegalArgumentException("Negative position");
+		if (dst.isReadOnly())
+			throw new IllegalArgumentException("Read-only buffer");
+		if (!readable)
+			throw new NonReadableChannelException();
+
+		var op = new ReadOperation<>(dst, attachment, handler);
+		post(op, () -> {
+			var offset = position;
+			for (var remaining = dst.remaining(); remaining > 0;) {
+				var n = Math.min(blockSize, remaining);
+				op.requests.add(new SftpReadAhead.Request(offset, n, handle.postReadRequest(offset, n)));
+				offset += n;
+				remaining -= n;
+			}
+		});
+	}
+
+	@Override
+	public Future<Integer> read(ByteBuffer dst, long position) {
+		var future = new CompletableFuture<Integer>();
+		read(dst, position, null, futureHandler(future));
+		return future;
+	}
+
+	@Override
+	public <A> void write(ByteBuffer src, long position, A attachment,
+			CompletionHandler<Integer, ? super A> handler) {
+		Objects.requireNonNull(handler);
+		if (position < 0)
+			throw new IllegalArgumentException("Negative position");
+		if (!writable)
+			throw new NonWritableChannelException();
+
+		var op = new WriteOperation<>(attachment, handler);
+		post(op, () -> {
+			invalidateIfObserved();
+			var offset = position;
+			var arr = src.hasArray() ? src.array() : new byte[Math.min(blockSize, src.remaining())];
+			while (src.hasRemaining()) {
+				var n = Math.min(blockSize, src.remaining());
+				if (src.hasArray()) {
+					op.requests.add(new SftpReadAhead.Request(offset, n,
+							handle.postWriteRequest(offset, arr, src.arrayOffset() + src.position(), n)));
+					src.position(src.position() + n);
+				} else {
+					src.get(arr, 0, n);
+					op.requests.add(new SftpReadAhead.Request(offset, n, handle.postWriteRequest(offset, arr, 0, n)));
+				}
+				offset += n;
+			}
+		});
+	}
+
+	@Override
+	public Future<Integer> write(ByteBuffer src, long position) {
+		var future = new CompletableFuture<Integer>();
+		write(src, position, null, futureHandler(future));
+		return future;
+	}
+
+	private void post(Operation<Integer, ?> op, Poster poster) {
+		synchronized (queue) {
+			try {
+				if (!open)
+					throw new ClosedChannelException();
+				poster.post();
+			} catch (Exception e) {
+				try {
+					SftpReadAhead.discard(channel, op.requests);
+				} catch (SshException e2) {
+				}
+				dispatch(op, null, e);
+				return;
+			}
+
+			queue.add(op);
+			if (!reaping) {
+				reaping = true;
+				try {
+					executor.execute(this::reap);
+				} catch (RejectedExecutionException ree) {
+					/* Nothing will collect the responses, so do it now and fail the operation */
+					reaping = false;
+					queue.remove(op);
+					try {
+						SftpReadAhead.discard(channel, op.requests);
+					} catch (SshException e2) {
+					}
+					dispatch(op, null, ree);
+				}
+			}
+		}
+	}
+
+	private void reap() {
+		while (completeNext(true))
+			;
+	}
+
+	private boolean completeNext(boolean reaper) {
+		Operation<?, ?> op;
+		synchronized (queue) {
+			op = queue.poll();
+			if (op == null) {
+				if (reaper)
+					reaping = false;
+				return false;
+			}
+			completing++;
+		}
+		try {
+			op.complete();
+		} finally {
+			synchronized (queue) {
+				completing--;
+				queue.notifyAll();
+			}
+		}
+		return true;
+	}
+
+	private <V, A> void dispatch(Operation<V, A> op, V result, Exception error) {
+		Runnable task = () -> {
+			if (error == null)
+				op.handler.completed(result, op.attachment);
+			else
+				op.handler.failed(translate(error), op.attachment);
+		};
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ree) {
+			/* The executor has been shut down, but the handler must still be told */
+			task.run();
+		}
+	}
+
+	/**
+	 * Forget the cached attributes of the path before it is changed, unless that
+	 * has already been done and nothing has been cached since.
+	 */
+	private void invalidateIfObserved() {
+		var observed = cache.observed();
+		if (observed != invalidatedAt) {
+			invalidatedAt = observed;
+			SftpFileSystemProvider.invalidate(path);
+		}
+	}
+
+	private void checkOpen() throws ClosedChannelException {
+		if (!isOpen())
+			throw new ClosedChannelException();
+	}
+
+	private void checkLock(long position, long size, boolean shared) {
+		if (position < 0 || size < 0)
+			throw new IllegalArgumentException("Negative position or size");
+		if (shared && !readable)
+			throw new NonReadableChannelException();
+		if (!shared && !writable)
+			throw new NonWritableChannelException();
+	}
+
+	private static Throwable translate(Exception e) {
+		try {
+			return SftpFileSystemProvider.translateException(e);
+		} catch (RuntimeException re) {
+			return re;
+		}
+	}
+
+	private static <V> CompletionHandler<V, Object> futureHandler(CompletableFuture<V> future) {
+		return new CompletionHandler<V, Object>() {
+			@Override
+			public void completed(V result, Object attachment) {
+				future.complete(result);
+			}
+
+			@Override
+			public void failed(Throwable exc, Object attachment) {
+				future.completeExceptionally(exc);
+			}
+		};
+	}
+}
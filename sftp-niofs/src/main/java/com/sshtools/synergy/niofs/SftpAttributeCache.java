@@ -0,0 +1,232 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+
+/**
+ * A bounded cache of the attributes of absolute remote paths, as returned by
+ * <code>SSH_FXP_STAT</code>, and of paths that were found not to exist.
+ * Entries expire after a fixed time, which may be different for each kind, and
+ * once the maximum number of entries is reached the least recently used is
+ * evicted.
+ * <p>
+ * A time to live of zero disables that kind of entry, in which case the
+ * methods for it do nothing.
+ */
+final class SftpAttributeCache {
+
+	private final static class CacheEntry {
+		private final SftpFileAttributes attributes;
+		private final long expires;
+
+		private CacheEntry(SftpFileAttributes attributes, long ttl) {
+			this.attributes = attributes;
+			this.expires = System.nanoTime() + ttl;
+		}
+	}
+
+	private final long ttl;
+	private final long missingTtl;
+	private final Map<String, CacheEntry> entries;
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong observed = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param ttl time to live of attributes in milliseconds, or zero to disable
+	 * @param missingTtl time to live of missing paths in milliseconds, or zero to
+	 *                   disable
+	 * @param maxEntries maximum number of entries of both kinds
+	 */
+	@SuppressWarnings("serial")
+	SftpAttributeCache(int ttl, int missingTtl, int maxEntries) {
+		this.ttl = ttl * 1000000L;
+		this.missingTtl = missingTtl * 1000000L;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Get the attributes of a path if they are cached and have not expired.
+	 *
+	 * @param path absolute path
+	 * @return attributes or <code>null</code>
+	 */
+	SftpFileAttributes get(String path) {
+		if (ttl == 0)
+			return null;
+		var entry = entry(path);
+		return entry == null ? null : entry.attributes;
+	}
+
+	/**
+	 * Get if a path was recently found not to exist.
+	 *
+	 * @param path absolute path
+	 * @return missing
+	 */
+	boolean isMissing(String path) {
+		if (missingTtl == 0)
+			return false;
+		var entry = entry(path);
+		return entry != null && entry.attributes == null;
+	}
+
+	/**
+	 * Get if paths that were found not to exist are cached.
+	 *
+	 * @return caching missing paths
+	 */
+	boolean isCachingMissing() {
+		return missingTtl != 0;
+	}
+
+	/**
+	 * Store the attributes of a path.
+	 *
+	 * @param path absolute path
+	 * @param attributes attributes
+	 */
+	void put(String path, SftpFileAttributes attributes) {
+		if (ttl == 0)
+			return;
+		synchronized (entries) {
+			entries.put(path, new CacheEntry(attributes, ttl));
+		}
+		observe();
+	}
+
+	/**
+	 * Record that a path does not exist. This is forgotten as soon as the path is
+	 * created through this file system.
+	 *
+	 * @param path absolute path
+	 */
+	void putMissing(String path) {
+		if (missingTtl == 0)
+			return;
+		synchronized (entries) {
+			entries.put(path, new CacheEntry(null, missingTtl));
+		}
+	}
+
+	/**
+	 * Forget the attributes of a path that has been changed, created or
+	 * deleted. The attributes of its parent are forgotten too, as its
+	 * modification time will also have changed.
+	 *
+	 * @param path absolute path
+	 */
+	void invalidate(String path) {
+		generation.incrementAndGet();
+		if (ttl == 0 && missingTtl == 0)
+			return;
+		synchronized (entries) {
+			entries.remove(path);
+			entries.remove(parent(path));
+		}
+	}
+
+	/**
+	 * Forget the attributes of a path that has been moved or deleted along with
+	 * everything beneath it, as well as those of its parent.
+	 *
+	 * @param path absolute path
+	 */
+	void invalidateTree(String path) {
+		generation.incrementAndGet();
+		if (ttl == 0 && missingTtl == 0)
+			return;
+		var prefix = path.endsWith("/") ? path : path + "/";
+		synchronized (entries) {
+			entries.remove(path);
+			entries.remove(parent(path));
+			entries.keySet().removeIf(k -> k.startsWith(prefix));
+		}
+	}
+
+	/**
+	 * Forget everything.
+	 */
+	void clear() {
+		generation.incrementAndGet();
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Get a number that changes whenever anything is invalidated, even when the
+	 * cache is disabled. Attributes held elsewhere, such as those a path was
+	 * listed with, are stale once this has changed.
+	 *
+	 * @return generation
+	 */
+	long generation() {
+		return generation.get();
+	}
+
+	/**
+	 * Note that attributes have been kept somewhere they may later be read from,
+	 * such as on a listed path.
+	 */
+	void observe() {
+		observed.incrementAndGet();
+	}
+
+	/**
+	 * Get a number that changes whenever attributes are stored, either in this
+	 * cache or elsewhere (see {@link #observe()}). Something that changes a path
+	 * repeatedly, such as a channel being written to, only needs to invalidate
+	 * it again once this has changed.
+	 *
+	 * @return observed count
+	 */
+	long observed() {
+		return observed.get();
+	}
+
+	private CacheEntry entry(String path) {
+		synchronized (entries) {
+			var entry = entries.get(path);
+			if (entry != null && System.nanoTime() - entry.expires >= 0) {
+				entries.remove(path);
+				return null;
+			}
+			return entry;
+		}
+	}
+
+	private static String parent(String path) {
+		var idx = path.lastIndexOf('/');
+		return idx < 1 ? "/" : path.substring(0, idx);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpFileAttributes.SftpFileAttributesBuilder;
+
+/**
+ * Decides the attributes to set on each path of a tree, for
+ * {@link SftpFileSystem#applyAttributes(Path, SftpAttributeMutation)}. The
+ * factory methods cover the common cases, and skip paths that already have
+ * the wanted value.
+ *
+ * <pre>
+ * fs.applyAttributes(remotePath, SftpAttributeMutation.permissions(
+ * 		PosixFilePermissions.fromString("rw-r--r--"),
+ * 		PosixFilePermissions.fromString("rwxr-xr-x"))).checkFailures();
+ * </pre>
+ */
+@FunctionalInterface
+public interface SftpAttributeMutation {
+
+	/**
+	 * Get the attributes to set on a path. Only the attributes present are
+	 * changed.
+	 *
+	 * @param path path
+	 * @param current current attributes, as returned by the listing the path
+	 *                was found in
+	 * @return attributes to set, or <code>null</code> to leave the path
+	 *         unchanged
+	 */
+	SftpFileAttributes apply(Path path, SftpFileAttributes current);
+
+	/**
+	 * Set the same permissions on every file and directory.
+	 *
+	 * @param permissions permissions
+	 * @return mutation
+	 */
+	static SftpAttributeMutation permissions(Set<PosixFilePermission> permissions) {
+		return permissions(permissions, permissions);
+	}
+
+	/**
+	 * Set one set of permissions on directories, and another on everything else.
+	 *
+	 * @param files permissions of everything other than directories
+	 * @param directories permissions of directories
+	 * @return mutation
+	 */
+	static SftpAttributeMutation permissions(Set<PosixFilePermission> files, Set<PosixFilePermission> directories) {
+		return (path, current) -> {
+			var permissions = current.isDirectory() ? directories : files;
+			if (current.permissionsOr().map(p -> p.asPermissions().equals(permissions)).orElse(false))
+				return null;
+			return SftpFileAttributesBuilder.create().withPermissions(permissions).build();
+		};
+	}
+
+	/**
+	 * Set the owner of every file and directory.
+	 *
+	 * @param owner user name, or numeric user ID
+	 * @return mutation
+	 */
+	static SftpAttributeMutation owner(String owner) {
+		return (path, current) -> {
+			if (owner.equals(current.usernameOr().orElse(null))
+					|| owner.equals(current.uidOr().map(String::valueOf).orElse(null)))
+				return null;
+			return SftpFileAttributeViews.ownership(current).withUidOrUsername(owner).build();
+		};
+	}
+
+	/**
+	 * Set the group of every file and directory.
+	 *
+	 * @param group group name, or numeric group ID
+	 * @return mutation
+	 */
+	static SftpAttributeMutation group(String group) {
+		return (path, current) -> {
+			if (group.equals(current.groupOr().orElse(null))
+					|| group.equals(current.gidOr().map(String::valueOf).orElse(null)))
+				return null;
+			return SftpFileAttributeViews.ownership(current).withGidOrGroup(group).build();
+		};
+	}
+
+	/**
+	 * Set the last modified time of every file and directory, leaving the last
+	 * access time as it is.
+	 *
+	 * @param lastModifiedTime last modified time
+	 * @return mutation
+	 */
+	static SftpAttributeMutation lastModifiedTime(FileTime lastModifiedTime) {
+		return (path, current) -> {
+			if (lastModifiedTime.equals(current.lastModifiedTimeOr().orElse(null)))
+				return null;
+			var bldr = SftpFileAttributesBuilder.create().withLastModifiedTime(lastModifiedTime);
+			/* Version 3 of the protocol can only set both times together */
+			current.lastAccessTimeOr().ifPresent(bldr::withLastAccessTime);
+			return bldr.build();
+		};
+	}
+}
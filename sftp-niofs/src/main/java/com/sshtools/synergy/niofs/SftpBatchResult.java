@@ -0,0 +1,100 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of an operation applied to many paths at once, such as
+ * {@link SftpFileSystems#setLastModifiedTimes(Map)}. A failure for one path
+ * does not stop the others, so each path ends up with either a result or a
+ * failure.
+ *
+ * @param <V> type of result for each path, {@link Void} if there is none
+ */
+public final class SftpBatchResult<V> {
+
+	private final Map<Path, V> results = new LinkedHashMap<>();
+	private final Map<Path, IOException> failures = new LinkedHashMap<>();
+
+	SftpBatchResult() {
+	}
+
+	/**
+	 * Get the paths that succeeded, each with its result. The results of
+	 * operations that have none are <code>null</code>.
+	 *
+	 * @return results
+	 */
+	public synchronized Map<Path, V> results() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(results));
+	}
+
+	/**
+	 * Get the paths that failed, each with its error.
+	 *
+	 * @return failures
+	 */
+	public synchronized Map<Path, IOException> failures() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+	}
+
+	/**
+	 * Get whether every path succeeded.
+	 *
+	 * @return successful
+	 */
+	public synchronized boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	/**
+	 * Throw an exception if any path failed. A single failure is thrown as is,
+	 * otherwise a new exception is thrown caused by the first failure, with the
+	 * rest suppressed.
+	 *
+	 * @throws IOException if any path failed
+	 */
+	public synchronized void checkFailures() throws IOException {
+		if (failures.isEmpty())
+			return;
+		var it = failures.values().iterator();
+		var first = it.next();
+		if (!it.hasNext())
+			throw first;
+		var e = new IOException(String.format("%d of %d paths failed.", failures.size(),
+				failures.size() + results.size()), first);
+		it.forEachRemaining(e::addSuppressed);
+		throw e;
+	}
+
+	synchronized void succeeded(Path path, V result) {
+		results.put(path, result);
+	}
+
+	synchronized void failed(Path path, IOException error) {
+		failures.put(path, error);
+	}
+}
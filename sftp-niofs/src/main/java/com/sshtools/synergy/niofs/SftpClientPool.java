@@ -0,0 +1,144 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.ssh.SshException;
+
+/**
+ * A pool of additional {@link SftpClient} instances, each with its own SFTP
+ * subsystem channel, opened over the same SSH connection as the file system's
+ * own client. Operations that run in parallel borrow a client each, so they
+ * are not limited by the flow control window of a single channel.
+ * <p>
+ * Clients are opened on demand, up to a maximum, and kept until the pool is
+ * closed. When the maximum is zero, the file system's own client is shared by
+ * everything.
+ */
+final class SftpClientPool implements Closeable {
+
+	private final SftpClient primary;
+	private final int max;
+	private final Deque<SftpClient> idle = new ArrayDeque<>();
+
+	private int open;
+	private boolean closed;
+
+	SftpClientPool(SftpClient primary, int max) {
+		this.primary = primary;
+		this.max = max;
+	}
+
+	/**
+	 * Borrow a client, opening a new one if none are idle and the maximum has
+	 * not been reached, otherwise waiting for one to be released.
+	 *
+	 * @return client
+	 * @throws IOException if a client cannot be opened or the pool is closed
+	 */
+	SftpClient acquire() throws IOException {
+		if (max == 0)
+			return primary;
+
+		synchronized (this) {
+			while (true) {
+				if (closed)
+					throw new ClosedChannelException();
+				var client = idle.poll();
+				if (client != null)
+					return client;
+				if (open < max) {
+					open++;
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+		}
+
+		try {
+			return SftpClientBuilder.create().withConnection(primary.getSubsystemChannel().getConnection()).build();
+		} catch (SshException | PermissionDeniedException | IOException | RuntimeException e) {
+			synchronized (this) {
+				open--;
+				notifyAll();
+			}
+			throw SftpFileSystemProvider.translateException(e);
+		}
+	}
+
+	/**
+	 * Return a borrowed client to the pool. If the operation using it failed in
+	 * a way that may have left the channel unusable, it is closed rather than
+	 * being re-used.
+	 *
+	 * @param client client
+	 * @param broken whether the client should be discarded
+	 */
+	void release(SftpClient client, boolean broken) {
+		if (client == primary)
+			return;
+
+		synchronized (this) {
+			if (!closed && !broken && !client.isClosed()) {
+				idle.add(client);
+				notifyAll();
+				return;
+			}
+			open--;
+			notifyAll();
+		}
+		closeQuietly(client);
+	}
+
+	@Override
+	public void close() {
+		Deque<SftpClient> toClose;
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayDeque<>(idle);
+			open -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+		toClose.forEach(SftpClientPool::closeQuietly);
+	}
+
+	private static void closeQuietly(SftpClient client) {
+		try {
+			client.close();
+		} catch (IOException e) {
+		}
+	}
+}
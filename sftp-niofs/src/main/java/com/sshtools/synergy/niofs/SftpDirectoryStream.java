@@ -27,33 +27,55 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.ClosedDirectoryStreamException;
 import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.client.sftp.SftpHandle;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
 
 public class SftpDirectoryStream implements DirectoryStream<Path> {
 	private final DirectoryStream.Filter<? super Path> filter;
+	private final Predicate<String> nameFilter;
 	private volatile Iterator<Path> iterator;
 	private volatile boolean open = true;
 	private final Path path;
+	private final SftpHandle handle;
 
 	SftpDirectoryStream(SftpPath sftpPath, DirectoryStream.Filter<? super Path> filter) throws IOException {
+		this(sftpPath, null, filter);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sftpPath directory
+	 * @param nameFilter if not <code>null</code>, tested against the file name of
+	 *                   each entry before a {@link Path} is created for it
+	 * @param filter if not <code>null</code>, tested against the {@link Path} of
+	 *                   each entry that passes the name filter
+	 * @throws IOException on error
+	 */
+	SftpDirectoryStream(SftpPath sftpPath, Predicate<String> nameFilter, DirectoryStream.Filter<? super Path> filter) throws IOException {
 		this.path = sftpPath.normalize();
+		this.nameFilter = nameFilter;
 		this.filter = filter;
-		if (Files.exists(path)) {
-			if (!Files.isDirectory(path)) {
-				throw new NotDirectoryException(sftpPath.toString());
-			}
-		} else
-			throw new NoSuchFileException(sftpPath.toString());
+		this.handle = openDirectory(sftpPath);
 	}
 
 	@Override
 	public synchronized void close() throws IOException {
-		open = false;
+		if (open) {
+			open = false;
+			handle.close();
+		}
 	}
 
 	@Override
@@ -62,78 +84,135 @@ public class SftpDirectoryStream implements DirectoryStream<Path> {
 			throw new ClosedDirectoryStreamException();
 		if (iterator != null)
 			throw new IllegalStateException();
-		try {
-			var sftpPath = (SftpPath) path;
-			try {
-				var fs = sftpPath.getFileSystem();
-				var pstr = toAbsolutePathString(path);
-				var sftp = fs.getSftp();
-				var it = sftp.lsIterator(pstr);
 
-				iterator = new Iterator<>() {
+		var it = new Iterator<Path>() {
 
-					Path next = null;
+			final List<SftpFile> page = new ArrayList<>();
+			int index;
+			boolean eof;
+			Path next = null;
 
-					@Override
-					public void remove() {
-						throw new UnsupportedOperationException();
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public boolean hasNext() {
+				if (!open)
+					return false;
+				checkNext();
+				return next != null;
+			}
+
+			@Override
+			public Path next() {
+				if (!open)
+					throw new NoSuchElementException();
+				try {
+					checkNext();
+					if (next == null) {
+						throw new NoSuchElementException();
 					}
+					return next;
+				} finally {
+					next = null;
+				}
+			}
 
-					@Override
-					public boolean hasNext() {
-						if (!open)
-							return false;
-						checkNext();
-						return next != null;
+			void readPage() {
+				page.clear();
+				index = 0;
+				try {
+					if (handle.listChildren(page) == -1)
+						eof = true;
+				} catch (SftpStatusException | SshException e) {
+					try {
+						throw translateException(e);
+					} catch (IOException ioe) {
+						throw new UncheckedIOException(ioe);
 					}
+				}
+			}
 
-					@Override
-					public Path next() {
-						if (!open)
-							throw new NoSuchElementException();
+			private void checkNext() {
+				if (next == null) {
+					while (true) {
+						if (index == page.size()) {
+							if (eof)
+								return;
+							readPage();
+							continue;
+						}
+						var nextFile = page.get(index++);
+						/* TODO: check this will never actual happen */
+						/*if (nextFile.getFilename().equals(".") || nextFile.getFilename().equals(".."))
+							continue; */
+						if (nameFilter != null && !nameFilter.test(nextFile.getFilename()))
+							continue;
+						var p = ((SftpPath) path.resolve(nextFile.getFilename())).withAttributes(nextFile.attributes());
 						try {
-							checkNext();
-							if (next == null) {
-								throw new NoSuchElementException();
+							if (filter == null || filter.accept(p)) {
+								next = p;
+								return;
 							}
-							return next;
-						} finally {
-							next = null;
+						} catch (IOException ioe) {
+							throw new UncheckedIOException(ioe);
 						}
 					}
+				}
+			}
 
-					private void checkNext() {
-						if (next == null) {
-							while (true) {
-								var hasNext = it.hasNext();
-								if (hasNext) {
-									var nextFile = it.next();
-									/* TODO: check this will never actual happen */
-									/*if (nextFile.getFilename().equals(".") || nextFile.getFilename().equals(".."))
-										continue; */
-									var p = path.resolve(nextFile.getFilename());
-									try {
-										if (filter == null || filter.accept(p)) {
-											next = p;
-											return;
-										}
-									} catch (IOException ioe) {
-										throw new UncheckedIOException(ioe);
-									}
-								} else
-									return;
-							}
-						}
-					}
+		};
 
-				};
-			} catch (Exception e) {
-				throw translateException(e);
+		/* Read the first page now so any failure is reported by this method */
+		it.readPage();
+		iterator = it;
+		return iterator;
+	}
+
+	private static SftpHandle openDirectory(SftpPath path) throws IOException {
+		var sftp = path.getFileSystem().getSftp();
+		var pstr = toAbsolutePathString(path);
+		try {
+			return sftp.getSubsystemChannel().openDirectory(pstr);
+		} catch (SftpStatusException e) {
+			switch (e.getStatus()) {
+			case SftpStatusException.SSH_FX_NO_SUCH_FILE:
+			case SftpStatusException.SSH_FX_NO_SUCH_PATH:
+				throw new NoSuchFileException(path.toString());
+			case SftpStatusException.SSH_FX_NOT_A_DIRECTORY:
+				throw new NotDirectoryException(path.toString());
+			case SftpStatusException.SSH_FX_FAILURE:
+				/*
+				 * Older protocol versions have no specific status for a path that is not a
+				 * directory, so only now that opening has failed look at what it is. If
+				 * that fails too, report a missing path as such, otherwise keep why.
+				 */
+				try {
+					if (!sftp.stat(pstr).isDirectory())
+						throw new NotDirectoryException(path.toString());
+				} catch (SftpStatusException e2) {
+					if (e2.getStatus() == SftpStatusException.SSH_FX_NO_SUCH_FILE
+							|| e2.getStatus() == SftpStatusException.SSH_FX_NO_SUCH_PATH) {
+						var nsfe = new NoSuchFileException(path.toString());
+						nsfe.initCause(e2);
+						throw nsfe;
+					}
+					var ioe = translateException(e);
+					ioe.addSuppressed(e2);
+					throw ioe;
+				} catch (SshException e2) {
+					var ioe = translateException(e);
+					ioe.addSuppressed(e2);
+					throw ioe;
+				}
+				break;
 			}
-		} catch (IOException e) {
-			throw new UncheckedIOException(e);
+			throw translateException(e);
+		} catch (SshException e) {
+			throw translateException(e);
 		}
-		return iterator;
 	}
 
 }
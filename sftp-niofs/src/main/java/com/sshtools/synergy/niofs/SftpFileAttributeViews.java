@@ -23,7 +23,11 @@ package com.sshtools.synergy.niofs;
 import static com.sshtools.synergy.niofs.SftpFileSystem.toAbsolutePathString;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttributeView;
@@ -33,7 +37,11 @@ import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,6 +51,7 @@ import com.sshtools.common.sftp.SftpFileAttributes;
 import com.sshtools.common.sftp.SftpFileAttributes.SftpFileAttributesBuilder;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
+import com.sshtools.synergy.niofs.SftpTreeWalker.SftpTreeWalkerBuilder;
 
 public class SftpFileAttributeViews {
 	
@@ -50,44 +59,463 @@ public class SftpFileAttributeViews {
 	}
 	
 	static Set<String> viewNames() {
-		return Set.of("basic", "sftp", "posix");
+		return Set.of("basic", "sftp", "posix", "unified");
 	}
 
 	@SuppressWarnings("unchecked")
-	static <V extends FileAttributeView> V get(SftpPath path, Class<V> type) {
+	static <V extends FileAttributeView> V get(SftpPath path, Class<V> type, LinkOption... options) {
+		var followLinks = followLinks(options);
 		if (type == null)
 			throw new NullPointerException();
 		else if (type == BasicFileAttributeView.class)
-			return (V) new BasicSftpFileAttributesView(path);
+			return (V) new BasicSftpFileAttributesView(path, followLinks);
 		else if (type == ExtendedSftpFileAttributeView.class)
-			return (V) new ExtendedSftpFileAttributeView(path);
+			return (V) new ExtendedSftpFileAttributeView(path, followLinks);
 		else if (type == PosixFileAttributeView.class)
-			return (V) new PosixSftpFileAttributeView(path);
+			return (V) new PosixSftpFileAttributeView(path, followLinks);
+		else if (type == UnifiedSftpFileAttributeView.class)
+			return (V) new UnifiedSftpFileAttributeView(path, followLinks);
 		return null;
 	}
 
 	@SuppressWarnings("unchecked")
-	static <V extends BasicFileAttributes> V getAttributes(SftpPath path, Class<V> type) throws IOException {
+	static <V extends BasicFileAttributes> V getAttributes(SftpPath path, Class<V> type, LinkOption... options)
+			throws IOException {
+		var followLinks = followLinks(options);
 		if (type == null)
 			throw new NullPointerException();
 		else if (type == BasicFileAttributes.class)
-			return (V) new BasicSftpFileAttributesView(path).readAttributes();
+			return (V) new BasicSftpFileAttributesView(path, followLinks).readAttributes();
 		else if (type == ExtendedSftpFileAttributes.class)
-			return (V) new ExtendedSftpFileAttributeView(path).readAttributes();
+			return (V) new ExtendedSftpFileAttributeView(path, followLinks).readAttributes();
 		else if (type == PosixFileAttributes.class)
-			return (V) new PosixSftpFileAttributeView(path).readAttributes();
+			return (V) new PosixSftpFileAttributeView(path, followLinks).readAttributes();
+		else if (type == UnifiedSftpFileAttributes.class)
+			return (V) new UnifiedSftpFileAttributeView(path, followLinks).readAttributes();
 		else
 			return null;
 	}
 
+	/**
+	 * Read the attributes of a path, returning <code>null</code> rather than
+	 * throwing an exception if it does not exist.
+	 *
+	 * @param <V> type of attributes
+	 * @param path path
+	 * @param type type of attributes
+	 * @param options options
+	 * @return attributes or <code>null</code>
+	 * @throws IOException on any error other than the path not existing
+	 */
 	@SuppressWarnings("unchecked")
-	static <V extends SftpFileAttributeView> V get(SftpPath path, String type) {
+	static <V extends BasicFileAttributes> V getAttributesIfExists(SftpPath path, Class<V> type,
+			LinkOption... options) throws IOException {
+		checkAttributesType(type);
+		var stat = lookup(path, followLinks(options), true);
+		return stat == null ? null : toAttributes(stat, type);
+	}
+
+	static void checkAttributesType(Class<? extends BasicFileAttributes> type) {
+		if (type == null)
+			throw new NullPointerException();
+		else if (type != BasicFileAttributes.class && type != ExtendedSftpFileAttributes.class
+				&& type != PosixFileAttributes.class && type != UnifiedSftpFileAttributes.class)
+			throw new UnsupportedOperationException("Unsupported attributes type " + type.getName());
+	}
+
+	@SuppressWarnings("unchecked")
+	static <V extends BasicFileAttributes> V toAttributes(SftpFileAttributes stat, Class<V> type) {
+		if (type == BasicFileAttributes.class)
+			return (V) new BasicSftpFileAttributes(stat);
+		else if (type == ExtendedSftpFileAttributes.class)
+			return (V) new ExtendedSftpFileAttributes(stat);
+		else if (type == UnifiedSftpFileAttributes.class)
+			return (V) new UnifiedSftpFileAttributes(stat);
+		else
+			return (V) new PosixSftpFileAttributes(stat);
+	}
+
+	/**
+	 * Get the attributes of a path, or <code>null</code> if it does not exist. If
+	 * the path came from a directory listing and the attributes it was listed
+	 * with are still fresh, they are used rather than asking the server again.
+	 * Listings describe symbolic links themselves rather than their targets, so
+	 * when following links these are always looked up. Otherwise the file
+	 * system's attribute cache is used, if it is enabled.
+	 * <p>
+	 * When following links, the STAT is only sent together with an LSTAT if the
+	 * answer to the LSTAT will be used, that is when a broken link is to be
+	 * described or paths that do not exist are cached. A link whose target does
+	 * not exist, or a path that does not exist at all, is then known in a single
+	 * round trip. Otherwise a path the STAT reports as missing is simply reported
+	 * as not existing, and no LSTAT is sent at all.
+	 *
+	 * @param path path
+	 * @param followLinks follow symbolic links
+	 * @param linkIfBroken when following links, describe a link whose target
+	 *                     does not exist by the attributes of the link itself
+	 *                     rather than returning <code>null</code>
+	 * @return attributes or <code>null</code>
+	 * @throws IOException on any error other than the path not existing
+	 */
+	static SftpFileAttributes lookup(SftpPath path, boolean followLinks, boolean linkIfBroken) throws IOException {
+		var snapshot = snapshot(path, followLinks);
+		if (snapshot != null)
+			return snapshot;
+
+		var pathStr = toAbsolutePathString(path);
+		var fs = path.getFileSystem();
+		var cache = fs.getAttributeCache();
+		if (cache.isMissing(pathStr))
+			return null;
+		var cached = cached(cache, pathStr, followLinks);
+		if (cached != null)
+			return cached;
+
+		var stat = new SftpFileAttributes[2];
+		var errors = new IOException[2];
+		var lstat = !followLinks || linkIfBroken || cache.isCachingMissing();
+		var pipeline = new SftpPipeline(fs.getSftp().getSubsystemChannel(), 2);
+		try {
+			if (followLinks) {
+				pipeline.stat(pathStr, true, (attrs, error) -> {
+					stat[0] = attrs;
+					errors[0] = error;
+				});
+			}
+			if (lstat) {
+				pipeline.stat(pathStr, false, (attrs, error) -> {
+					stat[1] = attrs;
+					errors[1] = error;
+				});
+			}
+		} finally {
+			pipeline.drain();
+		}
+
+		if (followLinks) {
+			if (stat[0] != null) {
+				cache.put(pathStr, stat[0]);
+				return stat[0];
+			} else if (errors[0] != SftpPipeline.NO_SUCH_FILE)
+				throw errors[0];
+			else if (!lstat)
+				return null;
+		}
+		if (stat[1] != null) {
+			if (!stat[1].isLink())
+				cache.put(pathStr, stat[1]);
+			return followLinks && !linkIfBroken ? null : stat[1];
+		} else if (errors[1] == SftpPipeline.NO_SUCH_FILE) {
+			cache.putMissing(pathStr);
+			return null;
+		} else
+			throw errors[1];
+	}
+
+	/**
+	 * Look up the attributes of many paths of the same file system, as
+	 * {@link #lookup(SftpPath, boolean, boolean)} does for one path. Any that
+	 * are not already known are requested with STAT (or LSTAT) requests sent back
+	 * to back. When following links, an LSTAT is only sent for those paths whose
+	 * STAT failed because they do not exist, as a second pass. Paths that do not
+	 * exist fail with {@link NoSuchFileException}.
+	 *
+	 * @param fs file system
+	 * @param paths paths
+	 * @param followLinks follow symbolic links
+	 * @return result
+	 * @throws IOException if requests could not be sent
+	 */
+	static SftpBatchResult<SftpFileAttributes> lookup(SftpFileSystem fs, Collection<? extends SftpPath> paths,
+			boolean followLinks) throws IOException {
+		var result = new SftpBatchResult<SftpFileAttributes>();
+		var cache = fs.getAttributeCache();
+		var pipeline = new SftpPipeline(fs.getSftp().getSubsystemChannel(), fs.getRequestWindow());
+		var unresolved = new ArrayList<SftpPath>();
+		try {
+			for (var path : paths) {
+				var pathStr = toAbsolutePathString(path);
+				var known = snapshot(path, followLinks);
+				if (known == null) {
+					if (cache.isMissing(pathStr)) {
+						result.failed(path, new NoSuchFileException(pathStr));
+						continue;
+					}
+					known = cached(cache, pathStr, followLinks);
+				}
+				if (known != null) {
+					result.succeeded(path, known);
+					continue;
+				}
+				pipeline.stat(pathStr, followLinks, (attrs, error) -> {
+					if (error == null) {
+						if (followLinks || !attrs.isLink())
+							cache.put(pathStr, attrs);
+						result.succeeded(path, attrs);
+					} else if (error == SftpPipeline.NO_SUCH_FILE) {
+						if (followLinks)
+							unresolved.add(path);
+						else {
+							cache.putMissing(pathStr);
+							result.failed(path, new NoSuchFileException(pathStr));
+						}
+					} else
+						result.failed(path, error);
+				});
+			}
+		} finally {
+			pipeline.drain();
+		}
+
+		try {
+			/* Paths whose target does not exist may be broken links */
+			for (var path : unresolved) {
+				var pathStr = toAbsolutePathString(path);
+				pipeline.stat(pathStr, false, (attrs, error) -> {
+					if (error == null)
+						result.succeeded(path, attrs);
+					else if (error == SftpPipeline.NO_SUCH_FILE) {
+						cache.putMissing(pathStr);
+						result.failed(path, new NoSuchFileException(pathStr));
+					} else
+						result.failed(path, error);
+				});
+			}
+		} finally {
+			pipeline.drain();
+		}
+		return result;
+	}
+
+	private static SftpFileAttributes snapshot(SftpPath path, boolean followLinks) {
+		var snapshot = path.snapshotAttributes();
+		return snapshot != null && (!followLinks || !snapshot.isLink()) ? snapshot : null;
+	}
+
+	private static SftpFileAttributes cached(SftpAttributeCache cache, String pathStr, boolean followLinks) {
+		var cached = cache.get(pathStr);
+		/* Cached attributes are those of the target, unless it is a link */
+		return cached != null && (followLinks || cached.isLink()) ? cached : null;
+	}
+
+	static boolean followLinks(LinkOption... options) {
+		for (var option : options) {
+			if (option == LinkOption.NOFOLLOW_LINKS)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Set the times of many paths, with the SETSTAT requests for each file system
+	 * pipelined over its channel. Where the current times are needed (see
+	 * {@link #times(int, FileTime, FileTime, FileTime, SftpFileAttributes)}), they
+	 * are fetched first with pipelined STAT requests, unless already known.
+	 *
+	 * @param lastModifiedTimes last modified time of each path, or
+	 *                          <code>null</code> to leave unchanged
+	 * @param lastAccessTime last access time of all paths, or <code>null</code>
+	 *                       to leave unchanged
+	 * @param createTime create time of all paths, or <code>null</code> to leave
+	 *                   unchanged
+	 * @return result
+	 * @throws IOException if requests could not be sent
+	 */
+	static SftpBatchResult<Void> setTimes(Map<? extends Path, FileTime> lastModifiedTimes, FileTime lastAccessTime,
+			FileTime createTime) throws IOException {
+		var result = new SftpBatchResult<Void>();
+		var byFileSystem = new LinkedHashMap<SftpFileSystem, List<SftpPath>>();
+		for (var en : lastModifiedTimes.entrySet()) {
+			var path = en.getKey();
+			if (path instanceof SftpPath) {
+				var sftpPath = (SftpPath) path;
+				byFileSystem.computeIfAbsent(sftpPath.getFileSystem(), k -> new ArrayList<>()).add(sftpPath);
+			} else {
+				try {
+					Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(en.getValue(),
+							lastAccessTime, createTime);
+					result.succeeded(path, null);
+				} catch (IOException ioe) {
+					result.failed(path, ioe);
+				}
+			}
+		}
+
+		for (var en : byFileSystem.entrySet()) {
+			var fs = en.getKey();
+			var cache = fs.getAttributeCache();
+			var channel = fs.getSftp().getSubsystemChannel();
+			var version = channel.getVersion();
+			var pipeline = new SftpPipeline(channel, fs.getRequestWindow());
+
+			var current = new HashMap<SftpPath, SftpFileAttributes>();
+			try {
+				for (var path : en.getValue()) {
+					if (needsCurrentTimes(version, lastModifiedTimes.get(path), lastAccessTime)) {
+						var known = path.snapshotAttributes();
+						if (known == null || known.isLink())
+							known = cache.get(toAbsolutePathString(path));
+						if (known == null) {
+							var pathStr = toAbsolutePathString(path);
+							pipeline.stat(pathStr, true, (attrs, error) -> {
+								if (error == null)
+									current.put(path, attrs);
+								else
+									result.failed(path, SftpPipeline.toException(error, pathStr));
+							});
+						} else
+							current.put(path, known);
+					}
+				}
+			} finally {
+				pipeline.drain();
+			}
+
+			try {
+				for (var path : en.getValue()) {
+					var lastModifiedTime = lastModifiedTimes.get(path);
+					if (needsCurrentTimes(version, lastModifiedTime, lastAccessTime) && !current.containsKey(path))
+						continue;
+					var pathStr = toAbsolutePathString(path);
+					pipeline.setAttributes(pathStr,
+							times(version, lastModifiedTime, lastAccessTime, createTime, current.get(path)),
+							(v, error) -> {
+								cache.invalidate(pathStr);
+								if (error == null)
+									result.succeeded(path, null);
+								else
+									result.failed(path, SftpPipeline.toException(error, pathStr));
+							});
+				}
+			} finally {
+				pipeline.drain();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Apply a mutation to every path in a tree, as described by
+	 * {@link SftpFileSystem#applyAttributes(Path, SftpAttributeMutation)}.
+	 *
+	 * @param root root of tree
+	 * @param mutation mutation
+	 * @return result
+	 * @throws IOException if the tree could not be walked or requests could not
+	 *                     be sent
+	 */
+	static SftpBatchResult<Void> apply(SftpPath root, SftpAttributeMutation mutation) throws IOException {
+		var fs = root.getFileSystem();
+		var cache = fs.getAttributeCache();
+		var result = new SftpBatchResult<Void>();
+		var pipeline = new SftpPipeline(fs.getSftp().getSubsystemChannel(), fs.getRequestWindow());
+		try (var stream = SftpTreeWalkerBuilder.create().build().stream(root)) {
+			var it = stream.iterator();
+			while (it.hasNext()) {
+				var path = (SftpPath) it.next();
+				var current = path.listingAttributes();
+				if (current == null) {
+					/* Only the root was not found by a listing */
+					current = lookup(path, false, true);
+					if (current == null)
+						throw new NoSuchFileException(toAbsolutePathString(path));
+				}
+				if (current.isLink())
+					continue;
+				var attributes = mutation.apply(path, current);
+				if (attributes == null)
+					continue;
+				var pathStr = toAbsolutePathString(path);
+				pipeline.setAttributes(pathStr, attributes, (v, error) -> {
+					cache.invalidate(pathStr);
+					if (error == null)
+						result.succeeded(path, null);
+					else
+						result.failed(path, SftpPipeline.toException(error, pathStr));
+				});
+			}
+		} catch (UncheckedIOException uioe) {
+			throw uioe.getCause();
+		} finally {
+			pipeline.drain();
+		}
+		return result;
+	}
+
+	/**
+	 * Get whether the current times of a path must be known to set the given
+	 * times. Version 3 of the protocol can only set the last modified and last
+	 * access times together.
+	 *
+	 * @param version protocol version
+	 * @param lastModifiedTime last modified time
+	 * @param lastAccessTime last access time
+	 * @return current times needed
+	 */
+	static boolean needsCurrentTimes(int version, FileTime lastModifiedTime, FileTime lastAccessTime) {
+		return version <= 3 && (lastModifiedTime == null) != (lastAccessTime == null);
+	}
+
+	/**
+	 * Build attributes that change only the given times, so nothing else is
+	 * sent back to the server.
+	 *
+	 * @param version protocol version
+	 * @param lastModifiedTime last modified time, or <code>null</code> to leave
+	 *                         unchanged
+	 * @param lastAccessTime last access time, or <code>null</code> to leave
+	 *                       unchanged
+	 * @param createTime create time, or <code>null</code> to leave unchanged
+	 * @param current current attributes, only used if
+	 *                {@link #needsCurrentTimes(int, FileTime, FileTime)}
+	 * @return attributes
+	 */
+	static SftpFileAttributes times(int version, FileTime lastModifiedTime, FileTime lastAccessTime,
+			FileTime createTime, SftpFileAttributes current) {
+		if (needsCurrentTimes(version, lastModifiedTime, lastAccessTime)) {
+			if (lastModifiedTime == null)
+				lastModifiedTime = current.lastModifiedTime();
+			else
+				lastAccessTime = current.lastAccessTime();
+		}
+		var bldr = SftpFileAttributesBuilder.create();
+		if (lastModifiedTime != null)
+			bldr.withLastModifiedTime(lastModifiedTime);
+		if (lastAccessTime != null)
+			bldr.withLastAccessTime(lastAccessTime);
+		if (createTime != null)
+			bldr.withCreateTime(createTime);
+		return bldr.build();
+	}
+
+	/**
+	 * Start building attributes that change the owner or group. Both are always
+	 * sent together, so the one not being changed is taken from the current
+	 * attributes.
+	 *
+	 * @param current current attributes
+	 * @return builder
+	 */
+	static SftpFileAttributesBuilder ownership(SftpFileAttributes current) {
+		return SftpFileAttributesBuilder.create().
+				withUid(current.uidOr()).
+				withGid(current.gidOr()).
+				withUsername(current.usernameOr()).
+				withGroup(current.groupOr());
+	}
+
+	@SuppressWarnings("unchecked")
+	static <V extends SftpFileAttributeView> V get(SftpPath path, String type, LinkOption... options) {
+		var followLinks = followLinks(options);
 		if (type.equals("basic"))
-			return (V) new BasicSftpFileAttributesView(path);
+			return (V) new BasicSftpFileAttributesView(path, followLinks);
 		else if (type.equals("sftp"))
-			return (V) new ExtendedSftpFileAttributeView(path);
+			return (V) new ExtendedSftpFileAttributeView(path, followLinks);
 		else if (type.equals("posix"))
-			return (V) new PosixSftpFileAttributeView(path);
+			return (V) new PosixSftpFileAttributeView(path, followLinks);
+		else if (type.equals("unified"))
+			return (V) new UnifiedSftpFileAttributeView(path, followLinks);
 		else
 			return null;
 	}
@@ -221,6 +649,27 @@ public class SftpFileAttributeViews {
 		}
 
 	}
+
+	/**
+	 * Everything known about a path, from a single request. As well as the
+	 * extended attributes, the same attributes may be had as
+	 * {@link PosixFileAttributes} using {@link #posix()}.
+	 */
+	public static final class UnifiedSftpFileAttributes extends ExtendedSftpFileAttributes {
+
+		UnifiedSftpFileAttributes(SftpFileAttributes e) {
+			super(e);
+		}
+
+		public PosixSftpFileAttributes posix() {
+			return new PosixSftpFileAttributes(attrs);
+		}
+
+		public SftpFileAttributes attributes() {
+			return attrs;
+		}
+
+	}
 	
 	public interface SftpFileAttributeView extends BasicFileAttributeView {
 
@@ -237,9 +686,11 @@ public class SftpFileAttributeViews {
 		};
 
 		protected final SftpPath path;
+		protected final boolean followLinks;
 
-		private BasicSftpFileAttributesView(SftpPath path) {
+		private BasicSftpFileAttributesView(SftpPath path, boolean followLinks) {
 			this.path = path;
+			this.followLinks = followLinks;
 		}
 
 		@Override
@@ -249,42 +700,40 @@ public class SftpFileAttributeViews {
 
 		@Override
 		public BasicSftpFileAttributes readAttributes() throws IOException {
-			var pathStr = toAbsolutePathString(path);
-			try {
-				return new BasicSftpFileAttributes(getSftp().stat(pathStr));
-			} catch (SftpStatusException e) {
-				try {
-					throw SftpFileSystemProvider.translateException(e);
-				} catch (NoSuchFileException nsfe) {
-					try {
-						return new BasicSftpFileAttributes(getSftp().statLink(pathStr));
-					} catch (Exception e1) {
-						throw SftpFileSystemProvider.translateException(e);
-					}
-				}
-			} catch (SshException e) {
-				throw SftpFileSystemProvider.translateException(e);
-			}
+			return new BasicSftpFileAttributes(stat());
+		}
+
+		/**
+		 * Get the attributes of the path, as described by
+		 * {@link SftpFileAttributeViews#lookup(SftpPath, boolean, boolean)}. When
+		 * following links, a link whose target does not exist is described by the
+		 * attributes of the link itself.
+		 *
+		 * @return attributes
+		 * @throws IOException on error
+		 */
+		protected final SftpFileAttributes stat() throws IOException {
+			var stat = lookup(path, followLinks, true);
+			if (stat == null)
+				throw new NoSuchFileException(toAbsolutePathString(path));
+			return stat;
 		}
 
 		@Override
 		public final void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime)
 				throws IOException {
+			if (lastModifiedTime == null && lastAccessTime == null && createTime == null)
+				return;
 			try {
 				var sftpPath = toAbsolutePathString(path);
-				var stat = getSftp().stat(sftpPath);
-
-				var bldr = SftpFileAttributesBuilder.create().withFileAttributes(stat);
-				bldr.withLastAccessTime(lastAccessTime);
-				bldr.withLastModifiedTime(lastModifiedTime);				
-				bldr.withCreateTime(createTime);
-
-				getSftp().getSubsystemChannel().setAttributes(sftpPath, bldr.build());
-
-			} catch (Exception e) {
+				var version = getSftp().getSubsystemChannel().getVersion();
+				var current = needsCurrentTimes(version, lastModifiedTime, lastAccessTime) ? stat() : null;
+				getSftp().getSubsystemChannel().setAttributes(sftpPath,
+						times(version, lastModifiedTime, lastAccessTime, createTime, current));
+				getFileSystem().getAttributeCache().invalidate(sftpPath);
+			} catch (SftpStatusException | SshException e) {
 				throw SftpFileSystemProvider.translateException(e);
-			} 
-
+			}
 		}
 
 		protected Object attribute(BasicAttribute id, BasicSftpFileAttributes attributes) {
@@ -320,9 +769,23 @@ public class SftpFileAttributeViews {
 		}
 
 		@Override
-		public Map<String, Object> readAttributes(String attributes) throws IOException {
-			var zfas = readAttributes();
+		public final Map<String, Object> readAttributes(String attributes) throws IOException {
 			var map = new LinkedHashMap<String, Object>();
+			putAttributes(stat(), attributes, map);
+			return map;
+		}
+
+		/**
+		 * Add the named attributes this view supports to a map. All views of a path
+		 * build their maps from the same attributes, so reading any of them costs
+		 * a single lookup.
+		 *
+		 * @param stat attributes
+		 * @param attributes comma separated names, or <code>*</code> for all
+		 * @param map map to add to
+		 */
+		void putAttributes(SftpFileAttributes stat, String attributes, Map<String, Object> map) {
+			var zfas = new BasicSftpFileAttributes(stat);
 			if ("*".equals(attributes)) {
 				for (var id : BasicAttribute.values()) {
 						map.put(id.name(), attribute(id, zfas));
@@ -336,7 +799,6 @@ public class SftpFileAttributeViews {
 					}
 				}
 			}
-			return map;
 		}
 
 		@Override
@@ -368,8 +830,8 @@ public class SftpFileAttributeViews {
 			owner, group, permissions
 		};
 
-		private PosixSftpFileAttributeView(SftpPath path) {
-			super(path);
+		private PosixSftpFileAttributeView(SftpPath path, boolean followLinks) {
+			super(path, followLinks);
 		}
 
 		@Override
@@ -379,22 +841,7 @@ public class SftpFileAttributeViews {
 
 		@Override
 		public PosixSftpFileAttributes readAttributes() throws IOException {
-			var pathStr = toAbsolutePathString(path);
-			try {
-				return new PosixSftpFileAttributes(getSftp().stat(pathStr));
-			} catch (SftpStatusException e) {
-				try {
-					throw SftpFileSystemProvider.translateException(e);
-				} catch (NoSuchFileException nsfe) {
-					try {
-						return new PosixSftpFileAttributes(getSftp().statLink(pathStr));
-					} catch (Exception e1) {
-						throw SftpFileSystemProvider.translateException(e);
-					}
-				}
-			} catch (SshException e) {
-				throw SftpFileSystemProvider.translateException(e);
-			}
+			return new PosixSftpFileAttributes(stat());
 		}
 
 		protected Object attribute(PosixAttribute id, PosixSftpFileAttributes attributes) {
@@ -410,9 +857,9 @@ public class SftpFileAttributeViews {
 		}
 
 		@Override
-		public Map<String, Object> readAttributes(String attributes) throws IOException {
-			var zfas = readAttributes();
-			var map = super.readAttributes(attributes);
+		void putAttributes(SftpFileAttributes stat, String attributes, Map<String, Object> map) {
+			var zfas = new PosixSftpFileAttributes(stat);
+			super.putAttributes(stat, attributes, map);
 			if ("*".equals(attributes)) {
 				for (var id : PosixAttribute.values()) {
 					map.put(id.name(), attribute(id, zfas));
@@ -426,7 +873,6 @@ public class SftpFileAttributeViews {
 					}
 				}
 			}
-			return map;
 		}
 
 		@SuppressWarnings("unchecked")
@@ -463,10 +909,10 @@ public class SftpFileAttributeViews {
 		public void setOwner(UserPrincipal owner) throws IOException {
 			try {
 				var sftpPath = toAbsolutePathString(path);
-				var stat = getSftp().stat(sftpPath);
-				var bldr = SftpFileAttributesBuilder.create().withFileAttributes(stat);
+				var bldr = ownership(stat());
 				bldr.withUidOrUsername(owner.getName());
 				getSftp().getSubsystemChannel().setAttributes(sftpPath, bldr.build());
+				getFileSystem().getAttributeCache().invalidate(sftpPath);
 			} catch (Exception e) {
 				throw SftpFileSystemProvider.translateException(e);
 			}
@@ -476,10 +922,10 @@ public class SftpFileAttributeViews {
 		public void setPermissions(Set<PosixFilePermission> perms) throws IOException {
 			try {
 				var sftpPath = toAbsolutePathString(path);
-				var stat = getSftp().stat(sftpPath);
-				var bldr = SftpFileAttributesBuilder.create().withFileAttributes(stat);
+				var bldr = SftpFileAttributesBuilder.create();
 				bldr.withPermissions(perms);
 				getSftp().getSubsystemChannel().setAttributes(sftpPath, bldr.build());
+				getFileSystem().getAttributeCache().invalidate(sftpPath);
 			} catch (Exception e) {
 				throw SftpFileSystemProvider.translateException(e);
 			}
@@ -490,10 +936,10 @@ public class SftpFileAttributeViews {
 		public void setGroup(GroupPrincipal group) throws IOException {
 			try {
 				var sftpPath = toAbsolutePathString(path);
-				var stat = getSftp().stat(sftpPath);
-				var bldr = SftpFileAttributesBuilder.create().withFileAttributes(stat);
+				var bldr = ownership(stat());
 				bldr.withGidOrGroup(group.getName());
 				getSftp().getSubsystemChannel().setAttributes(sftpPath, bldr.build());
+				getFileSystem().getAttributeCache().invalidate(sftpPath);
 			} catch(Exception e) {
 				throw SftpFileSystemProvider.translateException(e);
 			}
@@ -506,8 +952,8 @@ public class SftpFileAttributeViews {
 			uid, gid, maskString, permissions, mimeType, type, linkCount
 		};
 
-		private ExtendedSftpFileAttributeView(SftpPath path) {
-			super(path);
+		private ExtendedSftpFileAttributeView(SftpPath path, boolean followLinks) {
+			super(path, followLinks);
 		}
 
 		@Override
@@ -517,22 +963,7 @@ public class SftpFileAttributeViews {
 
 		@Override
 		public ExtendedSftpFileAttributes readAttributes() throws IOException {
-			var pathStr = toAbsolutePathString(path);
-			try {
-				return new ExtendedSftpFileAttributes(getSftp().stat(pathStr));
-			} catch (SftpStatusException e) {
-				try {
-					throw SftpFileSystemProvider.translateException(e);
-				} catch (NoSuchFileException nsfe) {
-					try {
-						return new ExtendedSftpFileAttributes(getSftp().statLink(pathStr));
-					} catch (Exception e1) {
-						throw SftpFileSystemProvider.translateException(e);
-					}
-				} 
-			} catch (SshException e) {
-				throw SftpFileSystemProvider.translateException(e);
-			}
+			return new ExtendedSftpFileAttributes(stat());
 		}
 
 		protected Object attribute(ExtendedAttribute id, ExtendedSftpFileAttributes attributes) {
@@ -556,9 +987,9 @@ public class SftpFileAttributeViews {
 		}
 
 		@Override
-		public Map<String, Object> readAttributes(String attributes) throws IOException {
-			var zfas = readAttributes();
-			var map = super.readAttributes(attributes);
+		void putAttributes(SftpFileAttributes stat, String attributes, Map<String, Object> map) {
+			var zfas = new ExtendedSftpFileAttributes(stat);
+			super.putAttributes(stat, attributes, map);
 			if ("*".equals(attributes)) {
 				for (var id : ExtendedAttribute.values()) {
 					map.put(id.name(), attribute(id, zfas));
@@ -572,7 +1003,6 @@ public class SftpFileAttributeViews {
 					}
 				}
 			}
-			return map;
 		}
 
 		@Override
@@ -582,27 +1012,27 @@ public class SftpFileAttributeViews {
 				switch (attr) {
 				case gid: {
 					var sftpPath = toAbsolutePathString(path);
-					var stat = getSftp().stat(sftpPath);
-					var bldr = SftpFileAttributesBuilder.create().withFileAttributes(stat);
+					var bldr = ownership(stat());
 					bldr.withGidOrGroup(String.valueOf(value));
 					getSftp().getSubsystemChannel().setAttributes(sftpPath, bldr.build());
+					getFileSystem().getAttributeCache().invalidate(sftpPath);
 					return;
 				}
 				case uid: {
 					var sftpPath = toAbsolutePathString(path);
-					var stat = getSftp().stat(sftpPath);
-					var bldr = SftpFileAttributesBuilder.create().withFileAttributes(stat);
+					var bldr = ownership(stat());
 					bldr.withUidOrUsername(String.valueOf(value));
 					getSftp().getSubsystemChannel().setAttributes(sftpPath, bldr.build());
+					getFileSystem().getAttributeCache().invalidate(sftpPath);
 					return;
 				}
 				case permissions:
 				default: /* For coverage */			
 					var sftpPath = toAbsolutePathString(path);
-					var stat = getSftp().stat(sftpPath);
-					var bldr = SftpFileAttributesBuilder.create().withFileAttributes(stat);
+					var bldr = SftpFileAttributesBuilder.create();
 					bldr.withPermissions((PosixPermissions)value);
 					getSftp().getSubsystemChannel().setAttributes(sftpPath, bldr.build());
+					getFileSystem().getAttributeCache().invalidate(sftpPath);
 					break;
 				}
 				return;
@@ -613,4 +1043,45 @@ public class SftpFileAttributeViews {
 			super.setAttribute(attribute, value);
 		}
 	}
+
+	/**
+	 * A view of every attribute of a path, those of the <code>basic</code>,
+	 * <code>posix</code> and <code>sftp</code> views together, read with a
+	 * single request. Where the <code>posix</code> and <code>sftp</code> views
+	 * both have a <code>permissions</code> attribute, the <code>posix</code> one
+	 * is used.
+	 */
+	public static final class UnifiedSftpFileAttributeView extends BasicSftpFileAttributesView {
+
+		private UnifiedSftpFileAttributeView(SftpPath path, boolean followLinks) {
+			super(path, followLinks);
+		}
+
+		@Override
+		public String name() {
+			return "unified";
+		}
+
+		@Override
+		public UnifiedSftpFileAttributes readAttributes() throws IOException {
+			return new UnifiedSftpFileAttributes(stat());
+		}
+
+		@Override
+		void putAttributes(SftpFileAttributes stat, String attributes, Map<String, Object> map) {
+			new ExtendedSftpFileAttributeView(path, followLinks).putAttributes(stat, attributes, map);
+			new PosixSftpFileAttributeView(path, followLinks).putAttributes(stat, attributes, map);
+		}
+
+		@Override
+		public void setAttribute(String attribute, Object value) throws IOException {
+			for (var id : PosixSftpFileAttributeView.PosixAttribute.values()) {
+				if (id.name().equals(attribute)) {
+					new PosixSftpFileAttributeView(path, followLinks).setAttribute(attribute, value);
+					return;
+				}
+			}
+			new ExtendedSftpFileAttributeView(path, followLinks).setAttribute(attribute, value);
+		}
+	}
 }
@@ -9,6 +9,9 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.sshtools.client.sftp.SftpChannel;
 import com.sshtools.client.sftp.SftpHandle;
@@ -20,21 +23,43 @@ public final class SftpFileChannel extends FileChannel {
 	private final boolean deleteOnClose;
 	private final Path path;
 	private final SftpHandle handle;
-	long pointer;
+	private final SftpChannel channel;
+	private final SftpReadAhead readAhead;
+	private final SftpWriteBehind writeBehind;
+	private final int blockSize;
+	private final int transferWindow;
+	private final SftpAttributeCache cache;
+	/* Idle staging buffer, borrowed by each operation that needs one */
+	private final AtomicReference<byte[]> staging = new AtomicReference<>();
+	/* Guards the position during relative operations */
+	private final Object positionLock = new Object();
+	private long pointer;
+	/* The cache's observed count when the path was last invalidated by a write */
+	private volatile long invalidatedAt = -1;
 
-	SftpFileChannel(boolean deleteOnClose, Path path, SftpHandle handle) {
+	SftpFileChannel(boolean deleteOnClose, Path path, SftpHandle handle, SftpFileSystem fs) {
 		this.deleteOnClose = deleteOnClose;
 		this.path = path;
 		this.handle = handle;
+
+		this.blockSize = fs.getBlockSize();
+		this.transferWindow = fs.getTransferWindow();
+		this.cache = fs.getAttributeCache();
+
+		this.channel = fs.getSftp().getSubsystemChannel();
+		this.readAhead = fs.getReadAhead() > 0 ? new SftpReadAhead(handle, channel, fs.getReadAhead(), fs.getBlockSize()) : null;
+		this.writeBehind = fs.getWriteBehind() > 0 ? new SftpWriteBehind(handle, channel, fs.getWriteBehind(), fs.getWriteBehindBytes(), fs.getBlockSize()) : null;
 	}
 
 	@Override
 	public void force(boolean metaData) throws IOException {
-		// Noop?
+		/* Nothing is buffered locally other than unacknowledged writes */
+		drainWrites();
 	}
 
 	@Override
 	public FileLock lock(long position, long size, boolean shared) throws IOException {
+		drainWrites();
 		var lockFlags = 0;
 		if(shared)
 			lockFlags = SftpChannel.SSH_FXF_ACCESS_BLOCK_READ;
@@ -50,121 +75,188 @@ public final class SftpFileChannel extends FileChannel {
 
 	@Override
 	public long position() throws IOException {
-		return pointer;
+		synchronized (positionLock) {
+			return pointer;
+		}
 	}
 
 	@Override
 	public FileChannel position(long newPosition) throws IOException {
-		pointer = newPosition;
+		if (newPosition < 0)
+			throw new IllegalArgumentException();
+		synchronized (positionLock) {
+			pointer = newPosition;
+		}
 		return this;
 	}
 
 	@Override
 	public int read(ByteBuffer dst) throws IOException {
-		// TODO optimize if buffer has array
-		var arr = new byte[dst.remaining()];
-		try {
-			int r = handle.read(pointer, arr, 0, arr.length);
-			if (r > 0) {
-				dst.put(arr, 0, r);
+		synchronized (positionLock) {
+			var r = readAt(dst, pointer);
+			if (r > 0)
 				pointer += r;
-			}
 			return r;
-		} catch (Exception e) {
-			throw SftpFileSystemProvider.translateException(e);
 		}
 	}
 
 	@Override
 	public int read(ByteBuffer dst, long position) throws IOException {
-		position(position);
-		return read(dst);
+		if (position < 0)
+			throw new IllegalArgumentException();
+		return readAt(dst, position);
 	}
 
 	@Override
 	public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
-		// TODO optimize if buffer has array
-		long t = 0;
-		try {
-			for (var dst : dsts) {
-				var arr = new byte[length];
-				int r = handle.read(pointer, arr, offset, arr.length);
-				if (r > 0) {
-					dst.put(arr, 0, r);
+		Objects.checkFromIndexSize(offset, length, dsts.length);
+		synchronized (positionLock) {
+			try {
+				drainWrites();
+				resetReadAhead();
+				var r = readVectored(dsts, offset, length);
+				if (r > 0)
 					pointer += r;
-				}
-				t += r;
+				return r;
+			} catch (Exception e) {
+				throw SftpFileSystemProvider.translateException(e);
 			}
-			return t;
-		} catch (Exception e) {
-			throw SftpFileSystemProvider.translateException(e);
 		}
 	}
 
 	@Override
 	public long size() throws IOException {
+		drainWrites();
+		/* Writes through this channel change the size */
+		SftpFileSystemProvider.invalidate(path);
 		return Files.size(path);
 	}
 
 	@Override
 	public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
-		// Untrusted target: Use a newly-erased buffer
-		int c = (int) Math.min(count, SftpFileSystemProvider.TRANSFER_SIZE);
-		ByteBuffer bb = ByteBuffer.allocate(c);
+		if (position < 0 || count < 0)
+			throw new IllegalArgumentException();
+
+		/*
+		 * Reading from the source and posting the write happen in this thread, while
+		 * up to a window of earlier writes are still awaiting acknowledgement.
+		 */
+		var writer = writeBehind == null ? newPipeline() : writeBehind;
+		var arr = borrowStaging();
+		var bb = ByteBuffer.wrap(arr);
 		long tw = 0; // Total bytes written
-		long pos = position;
+		var pos = position;
 		try {
-			while (tw < count) {
-				bb.limit((int) Math.min((count - tw), SftpFileSystemProvider.TRANSFER_SIZE));
-				// ## Bug: Will block reading src if this channel
-				// ## is asynchronously closed
-				int nr = src.read(bb);
-				if (nr <= 0)
-					break;
-				bb.flip();
-				int nw = write(bb, pos);
-				tw += nw;
-				if (nw != nr)
-					break;
-				pos += nw;
-				bb.clear();
+			try {
+				resetReadAhead();
+				invalidateIfObserved();
+				while (tw < count) {
+					bb.clear();
+					bb.limit((int) Math.min(count - tw, bb.capacity()));
+					// ## Bug: Will block reading src if this channel
+					// ## is asynchronously closed
+					int nr = src.read(bb);
+					if (nr <= 0)
+						break;
+					bb.flip();
+					int nw = bb.remaining();
+					writer.write(pos, bb.array(), 0, nw);
+					tw += nw;
+					if (nw != nr)
+						break;
+					pos += nw;
+				}
+			} finally {
+				if (writer != writeBehind)
+					writer.drain();
 			}
 			return tw;
+		} catch (SftpStatusException | SshException e) {
+			throw SftpFileSystemProvider.translateException(e);
 		} catch (IOException x) {
 			if (tw > 0)
 				return tw;
 			throw x;
+		} finally {
+			releaseStaging(arr);
 		}
 	}
 
 	@Override
 	public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
-		// Untrusted target: Use a newly-erased buffer
-		int c = (int) Math.min(count, SftpFileSystemProvider.TRANSFER_SIZE);
-		ByteBuffer bb = ByteBuffer.allocate(c);
+		if (position < 0 || count < 0)
+			throw new IllegalArgumentException();
+
+		/*
+		 * Keep a window of block sized reads outstanding, and write each response to
+		 * the target as it arrives. When the target is a local FileChannel, each block
+		 * is written to it in full straight from the staging buffer.
+		 */
+		var pending = new ArrayDeque<SftpReadAhead.Request>();
+		var arr = borrowStaging();
+		var bb = ByteBuffer.wrap(arr);
+		var window = transferWindow;
 		long tw = 0; // Total bytes written
-		long pos = position;
+		long posted = 0;
 		try {
-			while (tw < count) {
-				bb.limit((int) Math.min(count - tw, SftpFileSystemProvider.TRANSFER_SIZE));
-				int nr = read(bb, pos);
-				if (nr <= 0)
-					break;
-				bb.flip();
-				// ## Bug: Will block writing target if this channel
-				// ## is asynchronously closed
-				int nw = target.write(bb);
-				tw += nw;
-				if (nw != nr)
-					break;
-				pos += nw;
-				bb.clear();
+			drainWrites();
+			resetReadAhead();
+			try {
+				while (tw < count) {
+					while (pending.size() < window && posted < count) {
+						var n = (int) Math.min(blockSize, count - posted);
+						pending.add(new SftpReadAhead.Request(position + posted, n, handle.postReadRequest(position + posted, n)));
+						posted += n;
+					}
+
+					var req = pending.poll();
+					if (req == null)
+						break;
+
+					var msg = channel.getResponse(req.requestId);
+					var len = SftpReadAhead.dataLength(channel, msg);
+					if (len == -1)
+						break;
+
+					int nr;
+					try {
+						nr = Math.max(0, msg.read(arr, 0, Math.min(len, req.length)));
+					} finally {
+						msg.release();
+					}
+
+					bb.clear();
+					bb.limit(nr);
+					int nw;
+					if (target instanceof FileChannel) {
+						while (bb.hasRemaining()) {
+							if (target.write(bb) < 1)
+								break;
+						}
+						nw = bb.position();
+					} else {
+						// ## Bug: Will block writing target if this channel
+						// ## is asynchronously closed
+						nw = target.write(bb);
+					}
+					tw += nw;
+					if (nw != nr || nr < req.length)
+						break;
+				}
+			} finally {
+				SftpReadAhead.discard(channel, pending);
 			}
 			return tw;
+		} catch (SftpStatusException | SshException e) {
+			if (tw > 0)
+				return tw;
+			throw SftpFileSystemProvider.translateException(e);
 		} catch (IOException x) {
 			if (tw > 0)
 				return tw;
 			throw x;
+		} finally {
+			releaseStaging(arr);
 		}
 	}
 
@@ -173,6 +265,9 @@ public final class SftpFileChannel extends FileChannel {
 		var bldr = SftpFileAttributesBuilder.create();
 		bldr.withSize(size);
 		try {
+			drainWrites();
+			resetReadAhead();
+			invalidateIfObserved();
 			handle.setAttributes(bldr.build());
 			return this;
 		} catch (SftpStatusException | SshException e) {
@@ -188,46 +283,52 @@ public final class SftpFileChannel extends FileChannel {
 
 	@Override
 	public int write(ByteBuffer src) throws IOException {
-		try {
-			// TODO optimize if buffer has array
-			var arr = new byte[src.remaining()];
-			src.get(arr);
-			handle.write(pointer, arr, 0, arr.length);
-			pointer += arr.length;
-			return arr.length;
-		} catch (Exception e) {
-			throw SftpFileSystemProvider.translateException(e);
+		synchronized (positionLock) {
+			var len = writeAt(src, pointer);
+			pointer += len;
+			return len;
 		}
 	}
 
 	@Override
 	public int write(ByteBuffer src, long position) throws IOException {
-		position(position);
-		return write(src);
+		if (position < 0)
+			throw new IllegalArgumentException();
+		return writeAt(src, position);
 	}
 
 	@Override
 	public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
-		try {
-			// TODO optimize if buffer has array
-			long t = 0;
-			for (var src : srcs) {
-				var arr = new byte[length];
-				src.get(arr);
-				handle.write(pointer, arr, 0, length);
-				t += arr.length;
+		Objects.checkFromIndexSize(offset, length, srcs.length);
+		synchronized (positionLock) {
+			try {
+				resetReadAhead();
+				invalidateIfObserved();
+				var t = writeVectored(srcs, offset, length);
+				pointer += t;
+				return t;
+			} catch (Exception e) {
+				throw SftpFileSystemProvider.translateException(e);
 			}
-			return t;
-		} catch (Exception e) {
-			throw SftpFileSystemProvider.translateException(e);
 		}
 	}
 
 	@Override
 	protected void implCloseChannel() throws IOException {
 		try {
-			handle.close();
+			try {
+				try {
+					drainWrites();
+				} finally {
+					resetReadAhead();
+				}
+			} catch (SshException e) {
+				throw SftpFileSystemProvider.translateException(e);
+			} finally {
+				handle.close();
+			}
 		} finally {
+			SftpFileSystemProvider.invalidate(path);
 			if (deleteOnClose)
 				Files.delete(path);
 		}
@@ -237,6 +338,238 @@ public final class SftpFileChannel extends FileChannel {
 		return lock(position, size, lockFlags, isReadNotWrite(lockFlags));
 	}
 
+	private int readAt(ByteBuffer dst, long position) throws IOException {
+		try {
+			drainWrites();
+			int r;
+			if (dst.hasArray()) {
+				r = readHandle(position, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+				if (r > 0)
+					dst.position(dst.position() + r);
+			} else {
+				var arr = borrowStaging();
+				try {
+					r = readHandle(position, arr, 0, Math.min(arr.length, dst.remaining()));
+					if (r > 0)
+						dst.put(arr, 0, r);
+				} finally {
+					releaseStaging(arr);
+				}
+			}
+			return r;
+		} catch (Exception e) {
+			throw SftpFileSystemProvider.translateException(e);
+		}
+	}
+
+	private int writeAt(ByteBuffer src, long position) throws IOException {
+		try {
+			resetReadAhead();
+			invalidateIfObserved();
+			var len = src.remaining();
+			if (src.hasArray()) {
+				writeHandle(position, src.array(), src.arrayOffset() + src.position(), len);
+				src.position(src.limit());
+			} else {
+				var arr = borrowStaging();
+				try {
+					var pos = position;
+					while (src.hasRemaining()) {
+						var n = Math.min(arr.length, src.remaining());
+						src.get(arr, 0, n);
+						writeHandle(pos, arr, 0, n);
+						pos += n;
+					}
+				} finally {
+					releaseStaging(arr);
+				}
+			}
+			return len;
+		} catch (Exception e) {
+			throw SftpFileSystemProvider.translateException(e);
+		}
+	}
+
+	private int readHandle(long position, byte[] buf, int off, int len) throws SftpStatusException, SshException {
+		if (readAhead == null)
+			return handle.read(position, buf, off, len);
+		else
+			return readAhead.read(position, buf, off, len);
+	}
+
+	/**
+	 * Fill the buffer slice using as few block sized requests as possible, with up
+	 * to {@link SftpFileSystem#getTransferWindow()} of them outstanding at once. Stops at the first
+	 * short read, as anything after that would be at the wrong offset.
+	 */
+	private long readVectored(ByteBuffer[] dsts, int offset, int length) throws SftpStatusException, SshException {
+		long total = 0;
+		for (int i = offset; i < offset + length; i++)
+			total += dsts[i].remaining();
+		if (total == 0)
+			return 0;
+
+		var pending = new ArrayDeque<SftpReadAhead.Request>();
+		var idx = offset;
+		long posted = 0;
+		long read = 0;
+		var eof = false;
+		byte[] arr = null;
+		try {
+			while (true) {
+				while (pending.size() < transferWindow && posted < total) {
+					var n = (int) Math.min(blockSize, total - posted);
+					pending.add(new SftpReadAhead.Request(pointer + posted, n, handle.postReadRequest(pointer + posted, n)));
+					posted += n;
+				}
+
+				var req = pending.poll();
+				if (req == null)
+					break;
+
+				var msg = channel.getResponse(req.requestId);
+				var len = SftpReadAhead.dataLength(channel, msg);
+				if (len == -1) {
+					eof = true;
+					break;
+				}
+
+				try {
+					var remain = Math.min(len, req.length);
+					while (remain > 0) {
+						var dst = dsts[idx];
+						if (!dst.hasRemaining()) {
+							idx++;
+							continue;
+						}
+						var n = Math.min(remain, dst.remaining());
+						if (dst.hasArray()) {
+							msg.read(dst.array(), dst.arrayOffset() + dst.position(), n);
+							dst.position(dst.position() + n);
+						} else {
+							if (arr == null)
+								arr = borrowStaging();
+							n = Math.min(n, arr.length);
+							msg.read(arr, 0, n);
+							dst.put(arr, 0, n);
+						}
+						remain -= n;
+						read += n;
+					}
+				} finally {
+					msg.release();
+				}
+
+				if (len < req.length)
+					break;
+			}
+		} finally {
+			SftpReadAhead.discard(channel, pending);
+			if (arr != null)
+				releaseStaging(arr);
+		}
+		return read == 0 && eof ? -1 : read;
+	}
+
+	/**
+	 * Write the buffer slice using as few block sized requests as possible, with
+	 * up to {@link SftpFileSystem#getTransferWindow()} of them outstanding at once (or using the
+	 * channels write-behind if that is enabled). Whole blocks are written directly
+	 * from heap buffers, everything else is gathered into the staging buffer.
+	 */
+	private long writeVectored(ByteBuffer[] srcs, int offset, int length) throws SftpStatusException, SshException {
+		var writer = writeBehind == null ? newPipeline() : writeBehind;
+		var arr = borrowStaging();
+		var pos = pointer;
+		var fill = 0;
+		try {
+			for (int i = offset; i < offset + length; i++) {
+				var src = srcs[i];
+				while (src.hasRemaining()) {
+					if (fill == 0 && src.hasArray() && src.remaining() >= blockSize) {
+						var n = src.remaining() - (src.remaining() % blockSize);
+						writer.write(pos, src.array(), src.arrayOffset() + src.position(), n);
+						src.position(src.position() + n);
+						pos += n;
+					} else {
+						var n = Math.min(arr.length - fill, src.remaining());
+						src.get(arr, fill, n);
+						fill += n;
+						if (fill == arr.length) {
+							writer.write(pos, arr, 0, fill);
+							pos += fill;
+							fill = 0;
+						}
+					}
+				}
+			}
+			if (fill > 0) {
+				writer.write(pos, arr, 0, fill);
+				pos += fill;
+			}
+		} finally {
+			try {
+				if (writer != writeBehind)
+					writer.drain();
+			} finally {
+				releaseStaging(arr);
+			}
+		}
+		return pos - pointer;
+	}
+
+	private SftpWriteBehind newPipeline() {
+		return new SftpWriteBehind(handle, channel, transferWindow, (long) transferWindow * blockSize, blockSize);
+	}
+
+	/**
+	 * Borrow the staging buffer, or a new one if another operation is already
+	 * using it, as positional reads and writes may run at the same time as
+	 * anything else.
+	 */
+	private byte[] borrowStaging() {
+		var arr = staging.getAndSet(null);
+		return arr == null ? new byte[blockSize] : arr;
+	}
+
+	private void releaseStaging(byte[] arr) {
+		staging.set(arr);
+	}
+
+	private void writeHandle(long position, byte[] buf, int off, int len) throws SftpStatusException, SshException {
+		if (writeBehind == null)
+			handle.write(position, buf, off, len);
+		else
+			writeBehind.write(position, buf, off, len);
+	}
+
+	private void drainWrites() throws IOException {
+		if (writeBehind != null) {
+			try {
+				writeBehind.drain();
+			} catch (SftpStatusException | SshException e) {
+				throw SftpFileSystemProvider.translateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Forget the cached attributes of the path before it is changed, unless that
+	 * has already been done and nothing has been cached since.
+	 */
+	private void invalidateIfObserved() {
+		var observed = cache.observed();
+		if (observed != invalidatedAt) {
+			invalidatedAt = observed;
+			SftpFileSystemProvider.invalidate(path);
+		}
+	}
+
+	private void resetReadAhead() throws SshException {
+		if (readAhead != null)
+			readAhead.reset();
+	}
+
 	private boolean isReadNotWrite(int lockFlags) {
 		return ( lockFlags &  SftpChannel.SSH_FXF_ACCESS_BLOCK_READ ) != 0 &&
 			   ( lockFlags &  SftpChannel.SSH_FXF_ACCESS_BLOCK_WRITE ) == 0;
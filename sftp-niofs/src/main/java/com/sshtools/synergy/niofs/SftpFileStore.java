@@ -33,6 +33,7 @@ import com.sshtools.client.sftp.StatVfs;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.synergy.niofs.SftpFileAttributeViews.ExtendedSftpFileAttributeView;
+import com.sshtools.synergy.niofs.SftpFileAttributeViews.UnifiedSftpFileAttributeView;
 
 final class SftpFileStore extends FileStore {
 	private final String path;
@@ -50,12 +51,13 @@ final class SftpFileStore extends FileStore {
 
 	@Override
 	public boolean supportsFileAttributeView(String name) {
-		return name.equals("basic") || name.equals("sftp") || name.equals("posix");
+		return name.equals("basic") || name.equals("sftp") || name.equals("posix") || name.equals("unified");
 	}
 
 	@Override
 	public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
-		return type.equals(BasicFileAttributeView.class) || type.equals(ExtendedSftpFileAttributeView.class) || type.equals(PosixFileAttributeView.class);
+		return type.equals(BasicFileAttributeView.class) || type.equals(ExtendedSftpFileAttributeView.class) || type.equals(PosixFileAttributeView.class)
+				|| type.equals(UnifiedSftpFileAttributeView.class);
 	}
 
 	@Override
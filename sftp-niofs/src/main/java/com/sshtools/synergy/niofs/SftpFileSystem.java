@@ -25,33 +25,102 @@ import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.ProviderMismatchException;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sshtools.client.sftp.SftpClient;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.util.Utils;
+import com.sshtools.synergy.niofs.SftpFileAttributeViews.UnifiedSftpFileAttributes;
 
 public class SftpFileSystem extends FileSystem {
 
+	/**
+	 * The default size of each individual read or write request. 32KiB is the
+	 * largest request size all SFTP servers are required to honour.
+	 */
+	public final static int DEFAULT_BLOCK_SIZE = 32768;
+
+	/**
+	 * The default number of block sized requests kept outstanding during bulk
+	 * operations such as transfers and scatter/gather.
+	 */
+	public final static int DEFAULT_TRANSFER_WINDOW = 16;
+
+	/**
+	 * The default maximum number of additional SFTP channels opened for
+	 * operations that run in parallel.
+	 */
+	public final static int DEFAULT_MAX_CHANNELS = 4;
+
+	/**
+	 * The default number of milliseconds the attributes returned with each entry
+	 * of a directory listing are used before the server is asked again.
+	 */
+	public final static int DEFAULT_LISTING_ATTRIBUTES_TTL = 0;
+
+	/**
+	 * The default maximum number of paths whose attributes are cached, when the
+	 * attribute cache is enabled.
+	 */
+	public final static int DEFAULT_ATTRIBUTE_CACHE_SIZE = 1000;
+
+	/**
+	 * The default number of requests such as stat, setstat and remove kept
+	 * outstanding when an operation is applied to many paths at once.
+	 */
+	public final static int DEFAULT_REQUEST_WINDOW = 64;
+
+	/**
+	 * The number of compiled path matchers kept, by pattern, for re-use.
+	 */
+	final static int MAX_PATH_MATCHERS = 64;
+
 	private final SftpFileSystemProvider fileSystemProvider;
 	private final SftpClient sftp;
 	private final Path rootPath;
 	private final boolean closeSftpOnFileSystemClose;
 	private final URI uri;
+	private final int readAhead;
+	private final int blockSize;
+	private final int writeBehind;
+	private final int writeBehindBytes;
+	private final int transferWindow;
+	private final int maxChannels;
+	private final int listingAttributesTtl;
+	private final int requestWindow;
+	private final SftpAttributeCache attributeCache;
+	private ExecutorService executor;
+	private SftpClientPool clientPool;
 	private boolean closed;
 
+	@SuppressWarnings("serial")
+	private final Map<String, SftpPathMatcher> pathMatchers = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SftpPathMatcher> eldest) {
+			return size() > MAX_PATH_MATCHERS;
+		}
+	};
+
 	SftpFileSystem(SftpClient sftp, SftpFileSystemProvider fileSystemProvider, Optional<String> rootPath,
-			boolean closeSftpOnFileSystemClose, URI uri) {
+			boolean closeSftpOnFileSystemClose, URI uri, Map<String, ?> env) {
 		this.fileSystemProvider = fileSystemProvider;
 		this.sftp = sftp;
 		this.rootPath = new SftpPath(this, rootPath.orElseGet(() -> {
@@ -63,6 +132,17 @@ public class SftpFileSystem extends FileSystem {
 		}));
 		this.closeSftpOnFileSystemClose = closeSftpOnFileSystemClose;
 		this.uri = uri;
+		this.readAhead = intOption(env, SftpFileSystemProvider.READ_AHEAD, 0, 0);
+		this.blockSize = intOption(env, SftpFileSystemProvider.BLOCK_SIZE, DEFAULT_BLOCK_SIZE, 1);
+		this.writeBehind = intOption(env, SftpFileSystemProvider.WRITE_BEHIND, 0, 0);
+		this.maxChannels = intOption(env, SftpFileSystemProvider.MAX_CHANNELS, DEFAULT_MAX_CHANNELS, 0);
+		this.transferWindow = intOption(env, SftpFileSystemProvider.TRANSFER_WINDOW, DEFAULT_TRANSFER_WINDOW, 1);
+		this.writeBehindBytes = intOption(env, SftpFileSystemProvider.WRITE_BEHIND_BYTES, (int) Math.min(Integer.MAX_VALUE, (long) writeBehind * blockSize), blockSize);
+		this.listingAttributesTtl = intOption(env, SftpFileSystemProvider.LISTING_ATTRIBUTES_TTL, DEFAULT_LISTING_ATTRIBUTES_TTL, 0);
+		this.requestWindow = intOption(env, SftpFileSystemProvider.REQUEST_WINDOW, DEFAULT_REQUEST_WINDOW, 1);
+		this.attributeCache = new SftpAttributeCache(intOption(env, SftpFileSystemProvider.ATTRIBUTE_CACHE_TTL, 0, 0),
+				intOption(env, SftpFileSystemProvider.MISSING_CACHE_TTL, 0, 0),
+				intOption(env, SftpFileSystemProvider.ATTRIBUTE_CACHE_SIZE, DEFAULT_ATTRIBUTE_CACHE_SIZE, 1));
 	}
 
 	@Override
@@ -70,6 +150,12 @@ public class SftpFileSystem extends FileSystem {
 		if (!closed) {
 			closed = true;
 			try {
+				synchronized (this) {
+					if (executor != null)
+						executor.shutdown();
+					if (clientPool != null)
+						clientPool.close();
+				}
 				if (closeSftpOnFileSystemClose)
 					sftp.close();
 			} finally {
@@ -136,28 +222,40 @@ public class SftpFileSystem extends FileSystem {
 					"syntaxAndPattern must have form \"syntax:pattern\" but was \"" + syntaxAndPattern + "\"");
 		}
 
+		synchronized (pathMatchers) {
+			var matcher = pathMatchers.get(syntaxAndPattern);
+			if (matcher != null)
+				return matcher;
+		}
+
 		String syntax = syntaxAndPattern.substring(0, colonIndex);
 		String pattern = syntaxAndPattern.substring(colonIndex + 1);
-		String expr;
+		SftpPathMatcher matcher;
 		switch (syntax) {
 		case "glob":
-			expr = globToRegex(pattern);
+			matcher = SftpPathMatcher.glob(this, pattern);
 			break;
 		case "regex":
-			expr = pattern;
+			matcher = SftpPathMatcher.regex(pattern);
 			break;
 		default:
 			throw new UnsupportedOperationException("Unsupported path matcher syntax: \'" + syntax + "\'");
 		}
-		final Pattern regex = Pattern.compile(expr);
-		return new PathMatcher() {
-			@Override
-			public boolean matches(Path path) {
-				String str = path.toString();
-				Matcher m = regex.matcher(str);
-				return m.matches();
-			}
-		};
+		synchronized (pathMatchers) {
+			pathMatchers.put(syntaxAndPattern, matcher);
+		}
+		return matcher;
+	}
+
+	/**
+	 * Get a matcher for a glob, from the same cache as
+	 * {@link #getPathMatcher(String)}.
+	 *
+	 * @param glob glob
+	 * @return matcher
+	 */
+	SftpPathMatcher getGlobMatcher(String glob) {
+		return (SftpPathMatcher) getPathMatcher("glob:" + glob);
 	}
 
 	@Override
@@ -204,6 +302,209 @@ public class SftpFileSystem extends FileSystem {
 		return sftp;
 	}
 
+	/**
+	 * Get the maximum number of read requests that will be kept outstanding ahead
+	 * of the current position when a channel is being read sequentially. Zero
+	 * means read-ahead is disabled.
+	 * 
+	 * @return read ahead window
+	 */
+	public int getReadAhead() {
+		return readAhead;
+	}
+
+	/**
+	 * Get the size of each individual read or write request sent to the server.
+	 * 
+	 * @return block size
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Get the maximum number of write requests that may be awaiting acknowledgement
+	 * from the server before a write to a channel blocks. Zero means write-behind
+	 * is disabled, and every write waits for its acknowledgement.
+	 * 
+	 * @return write behind window
+	 */
+	public int getWriteBehind() {
+		return writeBehind;
+	}
+
+	/**
+	 * Get the maximum number of bytes that may be awaiting acknowledgement from the
+	 * server before a write to a channel blocks. Only used when write-behind is
+	 * enabled.
+	 * 
+	 * @return write behind byte budget
+	 */
+	public int getWriteBehindBytes() {
+		return writeBehindBytes;
+	}
+
+	/**
+	 * Get the number of block sized requests that are kept outstanding during bulk
+	 * operations such as {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+	 * 
+	 * @return transfer window
+	 */
+	public int getTransferWindow() {
+		return transferWindow;
+	}
+
+	/**
+	 * Get the maximum number of additional SFTP channels that will be opened
+	 * over the same connection for operations that run in parallel, such as
+	 * {@link SftpSegmentedTransfer}. Zero means such operations share this
+	 * file system's own channel.
+	 * 
+	 * @return maximum channels
+	 */
+	public int getMaxChannels() {
+		return maxChannels;
+	}
+
+	/**
+	 * Get the number of milliseconds that the attributes returned with each entry
+	 * of a directory listing are used to answer attribute queries on that entry's
+	 * path, before the server is asked again. They are also no longer used once
+	 * anything has been changed through this file system. Zero means they are
+	 * never used.
+	 * 
+	 * @return listing attributes time to live
+	 */
+	public int getListingAttributesTtl() {
+		return listingAttributesTtl;
+	}
+
+	/**
+	 * Get the number of requests such as stat, setstat and remove that are kept
+	 * outstanding when an operation is applied to many paths at once, such as
+	 * {@link SftpFileSystems#setLastModifiedTimes(Map)}.
+	 * 
+	 * @return request window
+	 */
+	public int getRequestWindow() {
+		return requestWindow;
+	}
+
+	/**
+	 * Read the attributes of many paths of this file system at once. Rather than
+	 * waiting for the answer to each STAT request before sending the next, up to
+	 * {@link #getRequestWindow()} requests are kept outstanding and the responses
+	 * collected as they arrive. Paths whose attributes are already known from a
+	 * directory listing or the attribute cache are not asked for again.
+	 * <p>
+	 * A failure for one path does not stop the others, each is reported in the
+	 * returned result. Paths that do not exist fail with
+	 * {@link java.nio.file.NoSuchFileException}.
+	 * <p>
+	 * When the attribute cache is enabled (see
+	 * {@link SftpFileSystemProvider#ATTRIBUTE_CACHE_TTL}), everything read is
+	 * added to it, so this may also be used to warm the cache before the paths
+	 * are used through the {@link java.nio.file.Files} API.
+	 * 
+	 * @param <A>     attributes type
+	 * @param paths   paths
+	 * @param type    attributes type, any of those supported by
+	 *                {@link java.nio.file.Files#readAttributes(Path, Class, LinkOption...)}
+	 * @param options options indicating how symbolic links are handled
+	 * @return result
+	 * @throws IOException if requests could not be sent
+	 */
+	public <A extends BasicFileAttributes> SftpBatchResult<A> readAttributes(Collection<? extends Path> paths,
+			Class<A> type, LinkOption... options) throws IOException {
+		SftpFileAttributeViews.checkAttributesType(type);
+		var sftpPaths = new ArrayList<SftpPath>(paths.size());
+		for (var path : paths) {
+			if (!(path instanceof SftpPath) || ((SftpPath) path).getFileSystem() != this)
+				throw new ProviderMismatchException("Path is not of this file system: " + path);
+			sftpPaths.add((SftpPath) path);
+		}
+		var stats = SftpFileAttributeViews.lookup(this, sftpPaths, SftpFileAttributeViews.followLinks(options));
+		var result = new SftpBatchResult<A>();
+		stats.results().forEach((path, stat) -> result.succeeded(path, SftpFileAttributeViews.toAttributes(stat, type)));
+		stats.failures().forEach(result::failed);
+		return result;
+	}
+
+	/**
+	 * Read all of the attributes of many paths of this file system at once. See
+	 * {@link #readAttributes(Collection, Class, LinkOption...)}.
+	 * 
+	 * @param paths paths
+	 * @return result
+	 * @throws IOException if requests could not be sent
+	 */
+	public SftpBatchResult<UnifiedSftpFileAttributes> readAttributes(Collection<? extends Path> paths)
+			throws IOException {
+		return readAttributes(paths, UnifiedSftpFileAttributes.class);
+	}
+
+	/**
+	 * Change the attributes of a path and, if it is a directory, everything
+	 * inside it, for example to fix permissions after a deployment. The tree is
+	 * walked as {@link SftpTreeWalker} does, and each path is passed to the
+	 * mutation along with the attributes from the listing it was found in, so
+	 * nothing else is asked of the server before changing it. SETSTAT requests
+	 * are sent as paths are found, with up to {@link #getRequestWindow()}
+	 * outstanding. Symbolic links are neither changed nor followed.
+	 * <p>
+	 * A failure to change one path does not stop the others, each is reported in
+	 * the returned result. Paths the mutation leaves unchanged are not included.
+	 * 
+	 * @param root     root of tree
+	 * @param mutation mutation
+	 * @return result
+	 * @throws IOException if the tree could not be walked or requests could not
+	 *                     be sent
+	 */
+	public SftpBatchResult<Void> applyAttributes(Path root, SftpAttributeMutation mutation) throws IOException {
+		if (!(root instanceof SftpPath) || ((SftpPath) root).getFileSystem() != this)
+			throw new ProviderMismatchException("Path is not of this file system: " + root);
+		return SftpFileAttributeViews.apply((SftpPath) root, mutation);
+	}
+
+	SftpAttributeCache getAttributeCache() {
+		return attributeCache;
+	}
+
+	synchronized SftpClientPool getClientPool() {
+		if (clientPool == null)
+			clientPool = new SftpClientPool(sftp, maxChannels);
+		return clientPool;
+	}
+
+	/**
+	 * Get the executor used for background work, such as completing asynchronous
+	 * channel operations. It is created on first use and shut down when the file
+	 * system is closed. Its threads are daemon threads.
+	 * 
+	 * @return executor
+	 */
+	synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			var counter = new AtomicInteger();
+			executor = Executors.newCachedThreadPool(r -> {
+				var t = new Thread(r, "sftp-fs-" + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return executor;
+	}
+
+	static int intOption(Map<String, ?> env, String key, int defaultValue, int minimum) {
+		var val = (Integer) env.get(key);
+		if(val == null)
+			return defaultValue;
+		if(val < minimum)
+			throw new IllegalArgumentException(String.format("%s must be at least %d.", key, minimum));
+		return val;
+	}
+
 	protected void appendDedupSep(StringBuilder sb, CharSequence s) {
 		for (int i = 0; i < s.length(); i++) {
 			char ch = s.charAt(i);
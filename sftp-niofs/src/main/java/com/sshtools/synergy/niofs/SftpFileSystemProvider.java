@@ -32,6 +32,7 @@ import java.nio.channels.OverlappingFileLockException;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
@@ -56,6 +57,7 @@ import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -67,9 +69,12 @@ import com.sshtools.client.sftp.SftpChannel;
 import com.sshtools.client.sftp.SftpClient;
 import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
 import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpFileAttributes;
 import com.sshtools.common.sftp.SftpFileAttributes.SftpFileAttributesBuilder;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger64;
+import com.sshtools.synergy.niofs.SftpSegmentedTransfer.SftpSegmentedTransferBuilder;
 
 public class SftpFileSystemProvider extends FileSystemProvider {
 
@@ -82,8 +87,17 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 	public final static String PATH = "path";
 	public final static String SFTP_CLOSE_ON_FS_CLOSE = "sftp-close-on-fs-close";
 	public final static String RELATIVE_SYMBOLIC_LINKS = "relative-symbolic-links";
-
-	protected static final long TRANSFER_SIZE = 8192;
+	public final static String READ_AHEAD = "read-ahead";
+	public final static String BLOCK_SIZE = "block-size";
+	public final static String WRITE_BEHIND = "write-behind";
+	public final static String WRITE_BEHIND_BYTES = "write-behind-bytes";
+	public final static String TRANSFER_WINDOW = "transfer-window";
+	public final static String MAX_CHANNELS = "max-channels";
+	public final static String LISTING_ATTRIBUTES_TTL = "listing-attributes-ttl";
+	public final static String ATTRIBUTE_CACHE_TTL = "attribute-cache-ttl";
+	public final static String ATTRIBUTE_CACHE_SIZE = "attribute-cache-size";
+	public final static String MISSING_CACHE_TTL = "missing-cache-ttl";
+	public final static String REQUEST_WINDOW = "request-window";
 
 	static IOException translateException(Exception e) {
 		if(e instanceof SftpStatusException) {
@@ -138,7 +152,8 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 		try {
 			var fs = sftpPath.getFileSystem();
 			var pstr = toAbsolutePathString(path);
-			fs.getSftp().stat(pstr);
+			if (SftpFileAttributeViews.lookup(sftpPath, true, false) == null)
+				throw new NoSuchFileException(pstr);
 			/*
 			 * Just assume we can read and write. SFTP itself provides no way to test if the
 			 * currently authenticated user can read or write.
@@ -154,12 +169,68 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 
 	}
 
+	/**
+	 * Test if a path exists without the cost of any exception being thrown when it
+	 * does not. This is used by {@link Files#exists(Path, LinkOption...)} and
+	 * {@link Files#notExists(Path, LinkOption...)} from Java 20, and may be called
+	 * directly or via {@link SftpFileSystems#exists(Path, LinkOption...)} on
+	 * earlier versions.
+	 *
+	 * @param path path
+	 * @param options options
+	 * @return exists, or <code>false</code> if its existence cannot be determined
+	 */
+	public boolean exists(Path path, LinkOption... options) {
+		try {
+			return SftpFileAttributeViews.lookup((SftpPath) path, SftpFileAttributeViews.followLinks(options), false) != null;
+		} catch (IOException ioe) {
+			return false;
+		}
+	}
+
+	/**
+	 * Read the attributes of a path if it exists, as
+	 * {@link #readAttributes(Path, Class, LinkOption...)} does, but return
+	 * <code>null</code> rather than throwing {@link NoSuchFileException} if it
+	 * does not. This is used by the {@link Files} methods that test a path's
+	 * type, such as {@link Files#isDirectory(Path, LinkOption...)}, from Java
+	 * 20, and may be called directly or via
+	 * {@link SftpFileSystems#readAttributesIfExists(Path, Class, LinkOption...)}
+	 * on earlier versions.
+	 *
+	 * @param <A> type of attributes
+	 * @param path path
+	 * @param type type of attributes
+	 * @param options options
+	 * @return attributes or <code>null</code>
+	 * @throws IOException on any error other than the path not existing
+	 */
+	public <A extends BasicFileAttributes> A readAttributesIfExists(Path path, Class<A> type, LinkOption... options)
+			throws IOException {
+		return SftpFileAttributeViews.getAttributesIfExists((SftpPath) path, type, options);
+	}
+
 	@Override
 	public void copy(Path source, Path target, CopyOption... options) throws IOException {
-		var sourceSftpPath = (SftpPath) source;
 		var optionsList = Set.of(options);
+		if (!(source instanceof SftpPath) || !(target instanceof SftpPath)) {
+			try {
+				copyForeign(source, target, optionsList);
+			} finally {
+				invalidate(target);
+			}
+			return;
+		}
+
+		var sourceSftpPath = (SftpPath) source;
+		var targetSftpPath = (SftpPath) target;
 		try {
 			var fs = sourceSftpPath.getFileSystem();
+			if (fs != targetSftpPath.getFileSystem()) {
+				copyBetween(sourceSftpPath, targetSftpPath, optionsList);
+				return;
+			}
+
 			var sourcePath = toAbsolutePathString(source);
 			var targetPath = toAbsolutePathString(target);
 			var replaceExisting = optionsList.contains(StandardCopyOption.REPLACE_EXISTING);
@@ -169,30 +240,125 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 				sftp.copyRemoteFile(sourcePath, targetPath, replaceExisting);
 			} catch (SftpStatusException se) {
 				if (se.getStatus() == SftpStatusException.SSH_FX_OP_UNSUPPORTED) {
-					if (!replaceExisting && Files.exists(target))
+					if (!replaceExisting && exists(target))
 						throw new FileAlreadyExistsException(targetPath);
-					try (var in = sftp.getInputStream(sourcePath)) {
-						try (var out = sftp.getOutputStream(targetPath)) {
-							in.transferTo(out);
-						}
-					}
+					copyData(fs, sourcePath, targetPath);
 				} else
 					throw se;
 			}
 
 			if (optionsList.contains(StandardCopyOption.COPY_ATTRIBUTES)) {
-				var stat = sftp.stat(sourcePath);
-				var otherStat = SftpFileAttributesBuilder.create().withFileAttributes(sftp.stat(targetPath));
-				otherStat.withPermissions(stat.permissions());
-				otherStat.withUidOrUsername(stat.bestUsernameOr());
-				otherStat.withGidOrGroup(stat.bestGroupOr());
-				sftp.getSubsystemChannel().setAttributes(targetPath, otherStat.build());
+				copyAttributes(sftp.stat(sourcePath), sftp, targetPath);
 			}
 
 		} catch (Exception e) {
 			throw translateException(e);
+		} finally {
+			invalidate(target);
+		}
+
+	}
+
+	/**
+	 * Copy a file from one SFTP file system to another, which will usually be on a
+	 * different server. Data is pumped from a window of reads on the source to a
+	 * window of writes on the target, so no more than a window of data is ever held
+	 * in memory.
+	 */
+	private void copyBetween(SftpPath source, SftpPath target, Set<CopyOption> options) throws IOException, SftpStatusException, SshException {
+		var sourceFs = source.getFileSystem();
+		var targetFs = target.getFileSystem();
+		var sourceSftp = sourceFs.getSftp();
+		var targetSftp = targetFs.getSftp();
+		var sourcePath = toAbsolutePathString(source);
+		var targetPath = toAbsolutePathString(target);
+		var replaceExisting = options.contains(StandardCopyOption.REPLACE_EXISTING);
+
+		var stat = sourceSftp.stat(sourcePath);
+		if (replaceExisting)
+			Files.deleteIfExists(target);
+		else if (exists(target))
+			throw new FileAlreadyExistsException(targetPath);
+
+		if (stat.isDirectory()) {
+			targetSftp.mkdir(targetPath);
+		} else {
+			try (var in = sourceSftp.openFile(sourcePath, SftpChannel.OPEN_READ)) {
+				try (var out = targetSftp.openFile(targetPath, SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE)) {
+					SftpWriteBehind.copy(in, sourceSftp.getSubsystemChannel(), out, targetSftp.getSubsystemChannel(),
+							Math.min(sourceFs.getBlockSize(), targetFs.getBlockSize()),
+							Math.min(sourceFs.getTransferWindow(), targetFs.getTransferWindow()));
+				}
+			}
+		}
+
+		if (options.contains(StandardCopyOption.COPY_ATTRIBUTES)) {
+			copyAttributes(stat, targetSftp, targetPath);
+		}
+	}
+
+	/**
+	 * Copy a file between an SFTP file system and a file system of any other
+	 * provider. The other side is accessed using positional {@link FileChannel} I/O,
+	 * with reads or writes pipelined on the SFTP side.
+	 */
+	private void copyForeign(Path source, Path target, Set<CopyOption> options) throws IOException {
+		if (Files.isDirectory(source)) {
+			if (options.contains(StandardCopyOption.REPLACE_EXISTING))
+				Files.deleteIfExists(target);
+			Files.createDirectory(target);
+			return;
 		}
 
+		var transfer = SftpSegmentedTransferBuilder.create().withSegments(1).build();
+		var copyOptions = options.toArray(new CopyOption[0]);
+		if (source instanceof SftpPath)
+			transfer.download(source, target, copyOptions);
+		else
+			transfer.upload(source, target, copyOptions);
+	}
+
+	/**
+	 * Give the target the permissions, owner, group and times of the source, all
+	 * taken from the source's attributes so the target need not be read first.
+	 */
+	private void copyAttributes(SftpFileAttributes stat, SftpClient targetSftp, String targetPath) throws SftpStatusException, SshException {
+		var otherStat = SftpFileAttributesBuilder.create();
+		otherStat.withPermissions(stat.permissions());
+		otherStat.withUidOrUsername(stat.bestUsernameOr());
+		otherStat.withGidOrGroup(stat.bestGroupOr());
+		var lastModifiedTime = stat.lastModifiedTimeOr();
+		var lastAccessTime = stat.lastAccessTimeOr();
+		/* Version 3 of the protocol can only set both times together */
+		lastModifiedTime.or(() -> lastAccessTime).ifPresent(otherStat::withLastModifiedTime);
+		lastAccessTime.or(() -> lastModifiedTime).ifPresent(otherStat::withLastAccessTime);
+		stat.createTimeOr().ifPresent(otherStat::withCreateTime);
+		targetSftp.getSubsystemChannel().setAttributes(targetPath, otherStat.build());
+	}
+
+	/**
+	 * Copy the content of one remote file to another when the server cannot do the
+	 * whole thing with <code>copy-file</code>. If the server supports
+	 * <code>copy-data</code>, the data never leaves the server, otherwise it is
+	 * streamed through the client with a window of reads and writes outstanding.
+	 */
+	private void copyData(SftpFileSystem fs, String sourcePath, String targetPath) throws IOException, SftpStatusException, SshException {
+		var sftp = fs.getSftp();
+		var channel = sftp.getSubsystemChannel();
+		try (var in = sftp.openFile(sourcePath, SftpChannel.OPEN_READ)) {
+			try (var out = sftp.openFile(targetPath, SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE)) {
+				try {
+					var zero = new UnsignedInteger64(0);
+					/* A length of zero means copy until the end of the source */
+					in.copyTo(out, zero, zero, zero);
+					return;
+				} catch (SftpStatusException se) {
+					if (se.getStatus() != SftpStatusException.SSH_FX_OP_UNSUPPORTED)
+						throw se;
+				}
+				SftpWriteBehind.copy(in, channel, out, channel, fs.getBlockSize(), fs.getTransferWindow());
+			}
+		}
 	}
 
 	@Override
@@ -203,6 +369,8 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 			fs.getSftp().mkdir(toAbsolutePathString(dir));
 		} catch (Exception e) {
 			throw translateException(e);
+		} finally {
+			invalidate(dir);
 		}
 	}
 
@@ -214,6 +382,8 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 			fs.getSftp().hardlink(toAbsolutePathString(existing), toAbsolutePathString(sftpPath));
 		} catch (Exception e) {
 			throw translateException(e);
+		} finally {
+			invalidate(link);
 		}
 	}
 
@@ -231,6 +401,8 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 			}
 		} catch (Exception e) {
 			throw translateException(e);
+		} finally {
+			invalidate(link);
 		}
 	}
 
@@ -244,12 +416,14 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 			fs.getSftp().rm(toAbsolutePathString(sftpPath));
 		} catch (Exception e) {
 			throw translateException(e);
+		} finally {
+			invalidateTree(path);
 		}
 	}
 
 	@Override
 	public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
-		return (V)SftpFileAttributeViews.get((SftpPath) path, type);
+		return (V)SftpFileAttributeViews.get((SftpPath) path, type, options);
 	}
 
 	@Override
@@ -309,7 +483,7 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 
 	@Override
 	public boolean isSameFile(Path path1, Path path2) throws IOException {
-		if(path1 instanceof SftpPath && path2 instanceof SftpPath && Files.exists(path1) && Files.exists(path2)) {
+		if(path1 instanceof SftpPath && path2 instanceof SftpPath && exists(path1) && exists(path2)) {
 			var full1 = ((SftpPath)path1).toAbsolutePath();
 			var full2 = path2.toAbsolutePath();
 			return full1.equals(full2);
@@ -320,8 +494,29 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 
 	@Override
 	public void move(Path source, Path target, CopyOption... options) throws IOException {
-		var sourceSftpPath = (SftpPath) source;
 		var optionsList = Set.of(options);
+		var foreign = !(source instanceof SftpPath) || !(target instanceof SftpPath);
+		if (foreign || source.getFileSystem() != target.getFileSystem()) {
+			if (optionsList.contains(StandardCopyOption.ATOMIC_MOVE))
+				throw new AtomicMoveNotSupportedException(source.toString(), target.toString(),
+						"Cannot atomically move between different file systems.");
+			var copyOptions = new HashSet<CopyOption>(optionsList);
+			copyOptions.add(StandardCopyOption.COPY_ATTRIBUTES);
+			try {
+				if (foreign)
+					copyForeign(source, target, copyOptions);
+				else
+					copyBetween((SftpPath) source, (SftpPath) target, copyOptions);
+			} catch (Exception e) {
+				throw translateException(e);
+			} finally {
+				invalidate(target);
+			}
+			source.getFileSystem().provider().delete(source);
+			return;
+		}
+
+		var sourceSftpPath = (SftpPath) source;
 		try {
 			var fs = sourceSftpPath.getFileSystem();
 			var sourcePath = toAbsolutePathString(source);
@@ -333,7 +528,7 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 				sftp.rename(sourcePath, targetPath, replaceExisting);
 			} catch (SftpStatusException se) {
 				if (se.getStatus() == SftpStatusException.SSH_FX_OP_UNSUPPORTED) {
-					if (replaceExisting && Files.exists(target))
+					if (replaceExisting && exists(target))
 						Files.delete(target);
 					sftp.rename(sourcePath, targetPath);
 				} else
@@ -341,6 +536,9 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 			}
 		} catch (Exception e) {
 			throw translateException(e);
+		} finally {
+			invalidateTree(source);
+			invalidateTree(target);
 		}
 
 	}
@@ -348,7 +546,28 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 	@Override
 	public AsynchronousFileChannel newAsynchronousFileChannel(Path path, Set<? extends OpenOption> options,
 			ExecutorService exec, FileAttribute<?>... attrs) throws IOException {
-		throw new UnsupportedOperationException();
+		if (options.contains(StandardOpenOption.APPEND))
+			throw new UnsupportedOperationException("APPEND not allowed");
+
+		var sftpPath = (SftpPath) path;
+		try {
+			var fs = sftpPath.getFileSystem();
+			var pstr = toAbsolutePathString(path);
+
+			int flags = optionsToFlags(path, options, sftpPath);
+
+			var writable = options.contains(StandardOpenOption.WRITE);
+			var readable = options.contains(StandardOpenOption.READ) || !writable;
+			var handle = fs.getSftp().openFile(pstr, flags);
+			if ((flags & (SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE)) != 0)
+				fs.getAttributeCache().invalidate(pstr);
+
+			return new SftpAsynchronousFileChannel(options.contains(StandardOpenOption.DELETE_ON_CLOSE), readable,
+					writable, path, handle, fs, exec == null ? fs.getExecutor() : exec);
+
+		} catch (Exception e) {
+			throw translateException(e);
+		}
 	}
 
 	@Override
@@ -375,11 +594,13 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 
 			var deleteOnClose = options.contains(StandardOpenOption.DELETE_ON_CLOSE);
 			var handle = fs.getSftp().openFile(pstr, flags);
+			if ((flags & (SftpChannel.OPEN_WRITE | SftpChannel.OPEN_APPEND | SftpChannel.OPEN_CREATE)) != 0)
+				fs.getAttributeCache().invalidate(pstr);
 			if(deleteOnClose) {
 				System.out.println("REMOVE delete on close handle: " + new String(handle.getHandle()));
 			}
 
-			return new SftpFileChannel(deleteOnClose, path, handle);
+			return new SftpFileChannel(deleteOnClose, path, handle, fs);
 
 		} catch (Exception e) {
 			throw translateException(e);
@@ -481,7 +702,7 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 				if (closeOnFsClose == null)
 					closeOnFsClose = true;
 			}
-			var vfs = new SftpFileSystem(sftpClient, this, emptyOptionalIfBlank(uriToRootPath(uri)), closeOnFsClose, uri);
+			var vfs = new SftpFileSystem(sftpClient, this, emptyOptionalIfBlank(uriToRootPath(uri)), closeOnFsClose, uri, env);
 			filesystems.put(uri, vfs);
 			return vfs;
 		}
@@ -507,7 +728,7 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
 			throws IOException {
 		var sftpPath = (SftpPath) path;
-		return SftpFileAttributeViews.getAttributes(sftpPath, type);
+		return SftpFileAttributeViews.getAttributes(sftpPath, type, options);
 	}
 
 	@Override
@@ -531,6 +752,23 @@ public class SftpFileSystemProvider extends FileSystemProvider {
 		((SftpPath) path).setAttribute(attribute, value, options);
 	}
 
+	/**
+	 * Forget any cached attributes of a path that has been changed.
+	 */
+	static void invalidate(Path path) {
+		if (path instanceof SftpPath)
+			((SftpPath) path).getFileSystem().getAttributeCache().invalidate(toAbsolutePathString(path));
+	}
+
+	/**
+	 * Forget any cached attributes of a path that has been moved or deleted, and
+	 * of everything beneath it.
+	 */
+	static void invalidateTree(Path path) {
+		if (path instanceof SftpPath)
+			((SftpPath) path).getFileSystem().getAttributeCache().invalidateTree(toAbsolutePathString(path));
+	}
+
 	void remove(URI path) {
 		filesystems.remove(path);
 	}
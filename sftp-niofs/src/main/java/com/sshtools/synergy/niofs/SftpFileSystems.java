@@ -22,11 +22,23 @@ package com.sshtools.synergy.niofs;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import com.sshtools.client.SshClient;
 import com.sshtools.client.sftp.SftpClient;
@@ -35,6 +47,8 @@ import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.util.Utils;
+import com.sshtools.synergy.niofs.SftpTreeDeleter.SftpTreeDeleterBuilder;
+import com.sshtools.synergy.niofs.SftpTreeWalker.SftpTreeWalkerBuilder;
 
 /**
  * Convenience methods to create new SFTP {@link FileSystem} instances directly,
@@ -124,12 +138,29 @@ public class SftpFileSystems {
 	 * @throws IOException if file system cannot be created
 	 */
 	public static FileSystem newFileSystem(SftpClient sftp, String path) throws IOException {
+		return newFileSystem(sftp, path, Map.of());
+	}
+
+	/**
+	 * Create a new file system given an existing {@link SftpClient}, using
+	 * a specified remote directory as the root of the file system and 
+	 * additional configuration via the environment {@link Map}. 
+	 * 
+	 * @param sftp sftp instance
+	 * @param path path of remote root.
+	 * @param environment additional configuration of file system
+	 * @return file system
+	 * @throws IOException if file system cannot be created
+	 */
+	public static FileSystem newFileSystem(SftpClient sftp, String path, Map<String, ?> environment) throws IOException {
 		var conx = sftp.getSubsystemChannel().getConnection();
+		var env = new HashMap<String, Object>(environment);
+		env.put(SftpFileSystemProvider.SFTP_CLIENT, sftp);
 		return FileSystems.newFileSystem(URI.create(String.format(
 				"sftp://%s@%s%s%s", conx.getUsername(), 
 					Utils.formatHostnameAndPort(
 							conx.getRemoteIPAddress(), conx.getRemotePort()), path.equals("") ? "" : "/", path )), 
-							Map.of(SftpFileSystemProvider.SFTP_CLIENT, sftp));
+							env);
 	}
 
 	/**
@@ -142,4 +173,181 @@ public class SftpFileSystems {
 	public static FileSystem newFileSystem(Map<String, ?> environment) throws IOException {
 		return FileSystems.newFileSystem(URI.create("sftp:////"), environment);
 	}
+
+	/**
+	 * Copy a file, in the same way as {@link Files#copy(Path, Path, CopyOption...)}.
+	 * <p>
+	 * When the source and target belong to different providers, {@link Files}
+	 * never asks either provider to perform the copy and will instead stream the
+	 * data through a small buffer. This method always hands the copy to the SFTP
+	 * provider if either path is an SFTP path, so the local side is accessed using
+	 * positional {@link FileChannel} I/O and the remote side with pipelined
+	 * requests.
+	 *
+	 * @param source source
+	 * @param target target
+	 * @param options options
+	 * @return target
+	 * @throws IOException on error
+	 */
+	public static Path copy(Path source, Path target, CopyOption... options) throws IOException {
+		var sftpPath = source instanceof SftpPath ? source : target;
+		if (sftpPath instanceof SftpPath) {
+			sftpPath.getFileSystem().provider().copy(source, target, options);
+			return target;
+		}
+		else
+			return Files.copy(source, target, options);
+	}
+
+	/**
+	 * Move a file, in the same way as {@link Files#move(Path, Path, CopyOption...)}.
+	 * See {@link #copy(Path, Path, CopyOption...)} for when this should be
+	 * preferred.
+	 *
+	 * @param source source
+	 * @param target target
+	 * @param options options
+	 * @return target
+	 * @throws IOException on error
+	 */
+	public static Path move(Path source, Path target, CopyOption... options) throws IOException {
+		var sftpPath = source instanceof SftpPath ? source : target;
+		if (sftpPath instanceof SftpPath) {
+			sftpPath.getFileSystem().provider().move(source, target, options);
+			return target;
+		}
+		else
+			return Files.move(source, target, options);
+	}
+
+	/**
+	 * Walk a remote file tree, listing a number of directories at the same time.
+	 * This is a shortcut for building an {@link SftpTreeWalker} with default
+	 * settings, see that class for more options.
+	 *
+	 * @param start starting path
+	 * @return stream of paths, which should be closed
+	 * @throws IOException if the starting path cannot be read
+	 */
+	public static Stream<Path> walk(Path start) throws IOException {
+		return SftpTreeWalkerBuilder.create().build().stream(start);
+	}
+
+	/**
+	 * Delete a remote path and, if it is a directory, everything inside it.
+	 * Files are removed with many requests outstanding at once. This is a
+	 * shortcut for building an {@link SftpTreeDeleter} with default settings,
+	 * see that class for more options.
+	 *
+	 * @param start path to delete
+	 * @return number of paths deleted
+	 * @throws IOException on error
+	 */
+	public static long deleteTree(Path start) throws IOException {
+		return SftpTreeDeleterBuilder.create().build().delete(start);
+	}
+
+	/**
+	 * Open a directory stream that only returns entries whose file name matches
+	 * a glob, in the same way as {@link Files#newDirectoryStream(Path, String)}.
+	 * The difference is that the glob is matched against each file name as it
+	 * arrives from the server, so no {@link Path} is created for entries that do
+	 * not match.
+	 * <p>
+	 * The glob syntax is the same as for {@link FileSystem#getPathMatcher(String)},
+	 * except that <code>*</code> and <code>?</code> never match a <code>/</code>,
+	 * and a segment that is exactly <code>**</code> matches any number of
+	 * directories. Globs that contain <code>/</code> are only useful with
+	 * {@link SftpTreeWalker.SftpTreeWalkerBuilder#withGlob(String)}.
+	 *
+	 * @param dir directory
+	 * @param glob glob
+	 * @return directory stream
+	 * @throws IOException on error
+	 */
+	public static DirectoryStream<Path> newDirectoryStream(Path dir, String glob) throws IOException {
+		if (!(dir instanceof SftpPath))
+			return Files.newDirectoryStream(dir, glob);
+		var sftpPath = (SftpPath) dir;
+		return new SftpDirectoryStream(sftpPath, SftpGlob.segment(sftpPath.getFileSystem(), glob), null);
+	}
+
+	/**
+	 * Test if a path exists. For an {@link SftpPath} this does not have the cost
+	 * of an exception being thrown when it does not, even before Java 20 where
+	 * {@link Files#exists(Path, LinkOption...)} takes advantage of this itself.
+	 *
+	 * @param path path
+	 * @param options options
+	 * @return exists, or <code>false</code> if its existence cannot be determined
+	 */
+	public static boolean exists(Path path, LinkOption... options) {
+		if (path instanceof SftpPath)
+			return ((SftpPath) path).getFileSystem().provider().exists(path, options);
+		return Files.exists(path, options);
+	}
+
+	/**
+	 * Read the attributes of a path, or return <code>null</code> if it does not
+	 * exist. For an {@link SftpPath} this does not have the cost of an exception
+	 * being thrown when it does not.
+	 *
+	 * @param <A> type of attributes
+	 * @param path path
+	 * @param type type of attributes
+	 * @param options options
+	 * @return attributes or <code>null</code>
+	 * @throws IOException on any error other than the path not existing
+	 */
+	public static <A extends BasicFileAttributes> A readAttributesIfExists(Path path, Class<A> type,
+			LinkOption... options) throws IOException {
+		if (path instanceof SftpPath)
+			return ((SftpPath) path).getFileSystem().provider().readAttributesIfExists(path, type, options);
+		try {
+			return Files.readAttributes(path, type, options);
+		} catch (NoSuchFileException nsfe) {
+			return null;
+		}
+	}
+
+	/**
+	 * Set the last modified time of many paths at once. Only the times are sent
+	 * to the server, and the requests for paths on the same file system are
+	 * pipelined, keeping up to {@link SftpFileSystem#getRequestWindow()} of them
+	 * outstanding, so this costs little more than one round trip for each window
+	 * of paths rather than one for every path.
+	 * <p>
+	 * A failure for one path does not stop the others, so check the result.
+	 *
+	 * @param lastModifiedTimes last modified time of each path
+	 * @return result
+	 * @throws IOException if requests could not be sent
+	 */
+	public static SftpBatchResult<Void> setLastModifiedTimes(Map<? extends Path, FileTime> lastModifiedTimes)
+			throws IOException {
+		return SftpFileAttributeViews.setTimes(lastModifiedTimes, null, null);
+	}
+
+	/**
+	 * Set the same times on many paths at once, in the same way as
+	 * {@link #setLastModifiedTimes(Map)}.
+	 *
+	 * @param paths paths
+	 * @param lastModifiedTime last modified time, or <code>null</code> to leave
+	 *                         unchanged
+	 * @param lastAccessTime last access time, or <code>null</code> to leave
+	 *                       unchanged
+	 * @param createTime create time, or <code>null</code> to leave unchanged
+	 * @return result
+	 * @throws IOException if requests could not be sent
+	 */
+	public static SftpBatchResult<Void> setTimes(Collection<? extends Path> paths, FileTime lastModifiedTime,
+			FileTime lastAccessTime, FileTime createTime) throws IOException {
+		var times = new LinkedHashMap<Path, FileTime>();
+		for (var path : paths) {
+			times.put(path, lastModifiedTime);
+		}
+		return SftpFileAttributeViews.setTimes(times, lastAccessTime, createTime);
+	}
 }
@@ -0,0 +1,160 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A glob that is matched one path segment at a time against plain file name
+ * strings, as they are returned by a directory listing, so that no
+ * {@link java.nio.file.Path} need be created for entries that do not match.
+ * <p>
+ * Unlike {@link SftpFileSystem#getPathMatcher(String)}, <code>*</code> and
+ * <code>?</code> never match across a <code>/</code>. A segment that is exactly
+ * <code>**</code> matches any number of segments, including none. Because
+ * matching is segment by segment, it is also possible to tell whether a
+ * directory could contain any matches at all, so that whole sub-trees may be
+ * skipped.
+ */
+final class SftpGlob {
+
+	private final static Predicate<String> ANY_DEPTH = s -> true;
+
+	private final List<Predicate<String>> segments;
+
+	private SftpGlob(List<Predicate<String>> segments) {
+		this.segments = segments;
+	}
+
+	/**
+	 * Compile a glob.
+	 *
+	 * @param fs file system, used to translate each segment
+	 * @param glob glob
+	 * @return compiled glob
+	 */
+	static SftpGlob compile(SftpFileSystem fs, String glob) {
+		var segments = new ArrayList<Predicate<String>>();
+		for (var segment : split(glob)) {
+			if (segment.equals("**"))
+				segments.add(ANY_DEPTH);
+			else
+				segments.add(segment(fs, segment));
+		}
+		return new SftpGlob(segments);
+	}
+
+	/**
+	 * Compile a glob for a single file name, i.e. one that contains no
+	 * <code>/</code>.
+	 *
+	 * @param fs file system, used to translate the glob
+	 * @param glob glob
+	 * @return predicate
+	 */
+	static Predicate<String> segment(SftpFileSystem fs, String glob) {
+		return fs.getGlobMatcher(glob)::matches;
+	}
+
+	/**
+	 * Get if the relative path made up of the names of a parent directory plus
+	 * one more name matches.
+	 *
+	 * @param parent names of parent, relative to where matching starts
+	 * @param name file name
+	 * @return matches
+	 */
+	boolean matches(List<String> parent, String name) {
+		return matches(parent, name, 0, 0);
+	}
+
+	/**
+	 * Get if the directory made up of the names of a parent directory plus one
+	 * more name could contain anything that matches.
+	 *
+	 * @param parent names of parent, relative to where matching starts
+	 * @param name directory name
+	 * @return may contain matches
+	 */
+	boolean mayContain(List<String> parent, String name) {
+		return mayContain(parent, name, 0, 0);
+	}
+
+	private boolean matches(List<String> parent, String name, int si, int ni) {
+		var count = parent.size() + 1;
+		if (si == segments.size())
+			return ni == count;
+		var segment = segments.get(si);
+		if (segment == ANY_DEPTH) {
+			for (int i = ni; i <= count; i++) {
+				if (matches(parent, name, si + 1, i))
+					return true;
+			}
+			return false;
+		}
+		return ni < count && segment.test(name(parent, name, ni)) && matches(parent, name, si + 1, ni + 1);
+	}
+
+	private boolean mayContain(List<String> parent, String name, int si, int ni) {
+		var count = parent.size() + 1;
+		if (ni == count)
+			return si < segments.size();
+		if (si == segments.size())
+			return false;
+		var segment = segments.get(si);
+		if (segment == ANY_DEPTH)
+			return true;
+		return segment.test(name(parent, name, ni)) && mayContain(parent, name, si + 1, ni + 1);
+	}
+
+	private static String name(List<String> parent, String name, int index) {
+		return index < parent.size() ? parent.get(index) : name;
+	}
+
+	/**
+	 * Split a glob into segments at each <code>/</code> that is not escaped or
+	 * inside a group or class.
+	 */
+	private static List<String> split(String glob) {
+		var segments = new ArrayList<String>();
+		var depth = 0;
+		var start = 0;
+		for (int i = 0; i < glob.length(); i++) {
+			var ch = glob.charAt(i);
+			if (ch == '\\')
+				i++;
+			else if (ch == '{' || ch == '[')
+				depth++;
+			else if ((ch == '}' || ch == ']') && depth > 0)
+				depth--;
+			else if (ch == '/' && depth == 0) {
+				if (i > start)
+					segments.add(glob.substring(start, i));
+				start = i + 1;
+			}
+		}
+		if (start < glob.length())
+			segments.add(glob.substring(start));
+		return segments;
+	}
+}
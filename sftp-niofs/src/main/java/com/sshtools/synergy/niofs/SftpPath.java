@@ -44,6 +44,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import com.sshtools.common.sftp.SftpFileAttributes;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
 
@@ -52,11 +53,23 @@ public class SftpPath implements Path {
 	private final ImmutableList<String> names;
     private final String root;
     private final SftpFileSystem fileSystem;
+    private final SftpFileAttributes attributes;
+    private final long attributesTime;
+    private final long attributesGeneration;
 
     SftpPath(SftpFileSystem fileSystem, String root, ImmutableList<String> names) {
+        this(fileSystem, root, names, null);
+    }
+
+    private SftpPath(SftpFileSystem fileSystem, String root, ImmutableList<String> names, SftpFileAttributes attributes) {
         this.fileSystem = fileSystem;
         this.root = root;
         this.names = names;
+        this.attributes = attributes;
+        this.attributesTime = attributes == null ? 0 : System.nanoTime();
+        this.attributesGeneration = attributes == null ? 0 : fileSystem.getAttributeCache().generation();
+        if (attributes != null && fileSystem.getListingAttributesTtl() > 0)
+            fileSystem.getAttributeCache().observe();
     }
 
     SftpPath(SftpFileSystem fileSystem, String root, String... names) {
@@ -362,6 +375,110 @@ public class SftpPath implements Path {
         return getFileSystem().toUri().resolve(toAbsolutePath().toString());
     }
 
+    /**
+     * Get a copy of this path that carries a snapshot of its attributes, such as
+     * those returned for each entry of a directory listing.
+     *
+     * @param attributes attributes
+     * @return path with attributes
+     */
+    SftpPath withAttributes(SftpFileAttributes attributes) {
+        return new SftpPath(fileSystem, root, names, attributes);
+    }
+
+    /**
+     * Get the snapshot of attributes this path was created with, if there is one,
+     * it is younger than {@link SftpFileSystem#getListingAttributesTtl()}, and
+     * nothing has been changed through the file system since it was taken.
+     *
+     * @return attributes or <code>null</code>
+     */
+    SftpFileAttributes snapshotAttributes() {
+        if (attributes == null || System.nanoTime() - attributesTime >= fileSystem.getListingAttributesTtl() * 1000000L
+                || fileSystem.getAttributeCache().generation() != attributesGeneration)
+            return null;
+        return attributes;
+    }
+
+    /**
+     * Get the attributes this path was created with, however old they are.
+     *
+     * @return attributes or <code>null</code>
+     */
+    SftpFileAttributes listingAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Get the length of {@link #toString()} without building it.
+     *
+     * @return length
+     */
+    int stringLength() {
+        var len = root == null ? 0 : root.length();
+        for (int i = 0; i < names.size(); i++) {
+            if (separatorBefore(i))
+                len++;
+            len += names.get(i).length();
+        }
+        return len;
+    }
+
+    /**
+     * Get if {@link #toString()} would start with a string, comparing it name by
+     * name without building it.
+     *
+     * @param prefix prefix
+     * @return starts with prefix
+     */
+    boolean stringStartsWith(String prefix) {
+        var pos = 0;
+        for (int i = -1; i < names.size() && pos < prefix.length(); i++) {
+            var part = i == -1 ? root : names.get(i);
+            if (part == null)
+                continue;
+            if (i > -1 && separatorBefore(i) && prefix.charAt(pos++) != '/')
+                return false;
+            var n = Math.min(part.length(), prefix.length() - pos);
+            if (!part.regionMatches(0, prefix, pos, n))
+                return false;
+            pos += n;
+        }
+        return pos == prefix.length();
+    }
+
+    /**
+     * Get if {@link #toString()} would end with a string, comparing it name by
+     * name, starting from the last, without building it.
+     *
+     * @param suffix suffix
+     * @return ends with suffix
+     */
+    boolean stringEndsWith(String suffix) {
+        var pos = suffix.length();
+        for (int i = names.size() - 1; i >= -1 && pos > 0; i--) {
+            var part = i == -1 ? root : names.get(i);
+            if (part == null)
+                continue;
+            var n = Math.min(part.length(), pos);
+            if (!part.regionMatches(part.length() - n, suffix, pos - n, n))
+                return false;
+            pos -= n;
+            if (pos > 0 && i > -1 && separatorBefore(i) && suffix.charAt(--pos) != '/')
+                return false;
+        }
+        return pos == 0;
+    }
+
+    private boolean separatorBefore(int index) {
+        for (int i = index - 1; i >= -1; i--) {
+            var part = i == -1 ? root : names.get(i);
+            if (part != null && !part.isEmpty())
+                return part.charAt(part.length() - 1) != '/';
+        }
+        return false;
+    }
+
     protected SftpPath checkPath(Path paramPath) {
         if (paramPath.getClass() != getClass()) {
             throw new ProviderMismatchException("Path is not of this class: " + paramPath + "[" + paramPath.getClass().getSimpleName() + "]");
@@ -438,7 +555,7 @@ public class SftpPath implements Path {
 			view = attributes.substring(0, colonPos++);
 			attrs = attributes.substring(colonPos);
 		}
-		var zfv = SftpFileAttributeViews.get(this, view);
+		var zfv = SftpFileAttributeViews.get(this, view, options);
 		if (zfv == null) {
 			throw new UnsupportedOperationException("view not supported");
 		}
@@ -456,7 +573,7 @@ public class SftpPath implements Path {
 			type = attribute.substring(0, colonPos++);
 			attr = attribute.substring(colonPos);
 		}
-		var view = SftpFileAttributeViews.get(this, type);
+		var view = SftpFileAttributeViews.get(this, type, options);
 		if (view == null)
 			throw new UnsupportedOperationException("view <" + view + "> is not supported");
 		view.setAttribute(attr, value);
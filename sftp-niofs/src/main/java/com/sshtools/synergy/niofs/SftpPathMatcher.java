@@ -0,0 +1,121 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link PathMatcher} that avoids regular expressions for the most common
+ * simple globs, i.e. a literal, <code>prefix*</code>, <code>*suffix</code>
+ * (including <code>*.ext</code>) and <code>prefix*suffix</code>. These are
+ * matched against the names of an {@link SftpPath} directly, without building
+ * its string form. Anything else falls back to a regular expression.
+ * <p>
+ * Either way, the result is the same as matching the regular expression made by
+ * {@link SftpFileSystem#globToRegex(String)} against {@link Path#toString()}.
+ */
+final class SftpPathMatcher implements PathMatcher {
+
+	private final String prefix;
+	private final String suffix;
+	private final boolean wildcard;
+	private final Pattern pattern;
+
+	private SftpPathMatcher(String prefix, String suffix, boolean wildcard, Pattern pattern) {
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.wildcard = wildcard;
+		this.pattern = pattern;
+	}
+
+	/**
+	 * Compile a glob.
+	 *
+	 * @param fs file system, used to translate globs that need a regular
+	 *           expression
+	 * @param glob glob
+	 * @return matcher
+	 */
+	static SftpPathMatcher glob(SftpFileSystem fs, String glob) {
+		var star = -1;
+		for (int i = 0; i < glob.length(); i++) {
+			switch (glob.charAt(i)) {
+			case '*':
+				if (star != -1)
+					return regex(fs.globToRegex(glob));
+				star = i;
+				break;
+			case '?':
+			case '[':
+			case ']':
+			case '{':
+			case '}':
+			case '\\':
+				return regex(fs.globToRegex(glob));
+			}
+		}
+		if (star == -1)
+			return new SftpPathMatcher(glob, "", false, null);
+		return new SftpPathMatcher(glob.substring(0, star), glob.substring(star + 1), true, null);
+	}
+
+	/**
+	 * Compile a regular expression.
+	 *
+	 * @param regex regular expression
+	 * @return matcher
+	 */
+	static SftpPathMatcher regex(String regex) {
+		return new SftpPathMatcher(null, null, false, Pattern.compile(regex));
+	}
+
+	@Override
+	public boolean matches(Path path) {
+		if (pattern == null && path instanceof SftpPath) {
+			var sftpPath = (SftpPath) path;
+			if (wildcard) {
+				return (prefix.isEmpty() || sftpPath.stringStartsWith(prefix))
+						&& (suffix.isEmpty() || sftpPath.stringEndsWith(suffix))
+						&& (prefix.isEmpty() || suffix.isEmpty()
+								|| sftpPath.stringLength() >= prefix.length() + suffix.length());
+			}
+			return sftpPath.stringLength() == prefix.length() && sftpPath.stringStartsWith(prefix);
+		}
+		return matches(path.toString());
+	}
+
+	/**
+	 * Match a string, such as a single file name.
+	 *
+	 * @param str string
+	 * @return matches
+	 */
+	boolean matches(String str) {
+		if (pattern != null)
+			return pattern.matcher(str).matches();
+		if (wildcard)
+			return str.length() >= prefix.length() + suffix.length() && str.startsWith(prefix)
+					&& str.endsWith(suffix);
+		return str.equals(prefix);
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpFileAttributes.SftpFileAttributesBuilder;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.synergy.ssh.PacketPool;
+
+/**
+ * Posts path based requests such as SSH_FXP_STAT, SSH_FXP_SETSTAT and
+ * SSH_FXP_REMOVE without waiting for each to be answered, up to a maximum
+ * number of outstanding requests. Once the limit is reached, further requests
+ * block until the oldest is answered. The outcome of each request is passed to
+ * its {@link Completion}, in the order the requests were made, on the thread
+ * that made a later request or called {@link #drain()}.
+ * <p>
+ * The client API only posts reads and writes, and does not expose the
+ * channel's request ID counter, so these requests are built here and sent on
+ * the channel directly. Each channel has its own counter for them, which
+ * issues IDs from the upper half of the 32 bit range only. The channel's own
+ * counter starts at zero and counts up without wrapping, so the two ranges
+ * cannot overlap until the channel itself has made 2^31 requests. The counter
+ * here never wraps back into the lower half. Once a channel has used up its
+ * range, further requests fail rather than reuse an ID.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class SftpPipeline {
+
+	/**
+	 * Receives the outcome of a request.
+	 *
+	 * @param <V> type of value
+	 */
+	@FunctionalInterface
+	interface Completion<V> {
+		/**
+		 * Called when the request is answered. On success, <code>error</code> is
+		 * <code>null</code>, and <code>value</code> is <code>null</code> for requests
+		 * that return no value. If the path does not exist, <code>error</code> is
+		 * {@link SftpPipeline#NO_SUCH_FILE}, which should be passed through
+		 * {@link SftpPipeline#toException(IOException, String)} before it is
+		 * reported.
+		 *
+		 * @param value value
+		 * @param error error
+		 */
+		void completed(V value, IOException error);
+	}
+
+	private final static int SSH_FXP_LSTAT = 7;
+	private final static int SSH_FXP_SETSTAT = 9;
+	private final static int SSH_FXP_REMOVE = 13;
+	private final static int SSH_FXP_RMDIR = 15;
+	private final static int SSH_FXP_STAT = 17;
+
+	private final static long ALL_ATTRIBUTES = SftpFileAttributes.SSH_FILEXFER_ATTR_SIZE
+			| SftpFileAttributes.SSH_FILEXFER_ATTR_PERMISSIONS | SftpFileAttributes.SSH_FILEXFER_ATTR_ACCESSTIME
+			| SftpFileAttributes.SSH_FILEXFER_ATTR_CREATETIME | SftpFileAttributes.SSH_FILEXFER_ATTR_MODIFYTIME
+			| SftpFileAttributes.SSH_FILEXFER_ATTR_ACL | SftpFileAttributes.SSH_FILEXFER_ATTR_OWNERGROUP
+			| SftpFileAttributes.SSH_FILEXFER_ATTR_SUBSECOND_TIMES;
+
+	/**
+	 * Passed to a {@link Completion} when the path does not exist. It is shared
+	 * and has no stack trace, so checking whether paths exist costs no
+	 * exceptions.
+	 */
+	@SuppressWarnings("serial")
+	final static NoSuchFileException NO_SUCH_FILE = new NoSuchFileException("No such file") {
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	};
+
+	private final static long FIRST_REQUEST_ID = 0x80000000L;
+	private final static long LAST_REQUEST_ID = 0xFFFFFFFFL;
+	private final static Map<SftpChannel, AtomicLong> requestIds = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	private final static class Request {
+		private final UnsignedInteger32 requestId;
+		private final boolean attributes;
+		private final Completion<?> completion;
+
+		private Request(UnsignedInteger32 requestId, boolean attributes, Completion<?> completion) {
+			this.requestId = requestId;
+			this.attributes = attributes;
+			this.completion = completion;
+		}
+	}
+
+	private final SftpChannel channel;
+	private final AtomicLong nextRequestId;
+	private final int window;
+	private final Deque<Request> pending = new ArrayDeque<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param channel channel
+	 * @param window maximum number of outstanding requests
+	 */
+	SftpPipeline(SftpChannel channel, int window) {
+		this.channel = channel;
+		this.window = window;
+		nextRequestId = requestIds.computeIfAbsent(channel, k -> new AtomicLong(FIRST_REQUEST_ID));
+	}
+
+	/**
+	 * Post a request for the attributes of a path.
+	 *
+	 * @param path absolute path
+	 * @param followLinks whether to follow a symbolic link, otherwise the
+	 *                    attributes of the link itself are returned
+	 * @param completion completion
+	 * @throws IOException if the request could not be sent
+	 */
+	void stat(String path, boolean followLinks, Completion<SftpFileAttributes> completion) throws IOException {
+		post(followLinks ? SSH_FXP_STAT : SSH_FXP_LSTAT, path, null, true, completion);
+	}
+
+	/**
+	 * Post a request to change the attributes of a path. Only the attributes
+	 * present are changed.
+	 *
+	 * @param path absolute path
+	 * @param attributes attributes
+	 * @param completion completion
+	 * @throws IOException if the request could not be sent
+	 */
+	void setAttributes(String path, SftpFileAttributes attributes, Completion<Void> completion) throws IOException {
+		post(SSH_FXP_SETSTAT, path, attributes, false, completion);
+	}
+
+	/**
+	 * Post a request to remove a file.
+	 *
+	 * @param path absolute path
+	 * @param completion completion
+	 * @throws IOException if the request could not be sent
+	 */
+	void remove(String path, Completion<Void> completion) throws IOException {
+		post(SSH_FXP_REMOVE, path, null, false, completion);
+	}
+
+	/**
+	 * Post a request to remove an empty directory.
+	 *
+	 * @param path absolute path
+	 * @param completion completion
+	 * @throws IOException if the request could not be sent
+	 */
+	void removeDirectory(String path, Completion<Void> completion) throws IOException {
+		post(SSH_FXP_RMDIR, path, null, false, completion);
+	}
+
+	/**
+	 * Wait for all outstanding requests to be answered.
+	 */
+	void drain() {
+		while (!pending.isEmpty()) {
+			complete(pending.poll());
+		}
+	}
+
+	private void post(int type, String path, SftpFileAttributes attributes, boolean returnsAttributes,
+			Completion<?> completion) throws IOException {
+		while (pending.size() >= window) {
+			complete(pending.poll());
+		}
+		var requestId = nextRequestId();
+		try {
+			var msg = PacketPool.getInstance().getPacket();
+			msg.write(type);
+			msg.writeInt(requestId.longValue());
+			msg.writeString(path, channel.getCharsetEncoding());
+			if (attributes != null)
+				msg.write(attributes.toByteArray(channel.getVersion()));
+			else if (returnsAttributes && channel.getVersion() > 3)
+				msg.writeInt(channel.getVersion() > 4 ? ALL_ATTRIBUTES | SftpFileAttributes.SSH_FILEXFER_ATTR_BITS
+						: ALL_ATTRIBUTES);
+			channel.sendMessage(msg);
+		} catch (SshException e) {
+			throw SftpFileSystemProvider.translateException(e);
+		}
+		pending.add(new Request(requestId, returnsAttributes, completion));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void complete(Request req) {
+		var completion = (Completion<Object>) req.completion;
+		try {
+			var msg = channel.getResponse(req.requestId);
+			try {
+				if (req.attributes && msg.getType() == SftpChannel.SSH_FXP_ATTRS) {
+					completion.completed(
+							SftpFileAttributesBuilder.of(msg, channel.getVersion(), channel.getCharsetEncoding()).build(),
+							null);
+					return;
+				} else if (msg.getType() != SftpChannel.SSH_FXP_STATUS)
+					throw new SshException("The server responded with an unexpected message",
+							SshException.CHANNEL_FAILURE);
+
+				var status = (int) msg.readInt();
+				if (status == SftpStatusException.SSH_FX_OK && !req.attributes) {
+					completion.completed(null, null);
+					return;
+				} else if (status == SftpStatusException.SSH_FX_NO_SUCH_FILE) {
+					completion.completed(null, NO_SUCH_FILE);
+					return;
+				} else if (channel.getVersion() >= 3)
+					throw new SftpStatusException(status, msg.readString());
+				else
+					throw new SftpStatusException(status);
+			} finally {
+				msg.release();
+			}
+		} catch (IOException e) {
+			completion.completed(null, e);
+		} catch (SftpStatusException | SshException e) {
+			IOException error;
+			try {
+				error = SftpFileSystemProvider.translateException(e);
+			} catch (RuntimeException re) {
+				error = new IOException(re.getMessage(), e);
+			}
+			completion.completed(null, error);
+		}
+	}
+
+	/**
+	 * Get an error that may be reported for a path, replacing
+	 * {@link #NO_SUCH_FILE} with an exception naming the path.
+	 *
+	 * @param error error passed to a {@link Completion}
+	 * @param path path
+	 * @return error to report
+	 */
+	static IOException toException(IOException error, String path) {
+		return error == NO_SUCH_FILE ? new NoSuchFileException(path) : error;
+	}
+
+	private UnsignedInteger32 nextRequestId() throws IOException {
+		var id = nextRequestId.getAndIncrement();
+		if (id > LAST_REQUEST_ID)
+			throw new IOException("The channel has no request IDs left for pipelined requests.");
+		return new UnsignedInteger32(id);
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpHandle;
+import com.sshtools.client.sftp.SftpMessage;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+
+/**
+ * Keeps a window of SSH_FXP_READ requests outstanding ahead of the current
+ * position of a handle while it is being read sequentially, so that each read
+ * does not cost a full network round trip. As soon as a read is made that does
+ * not follow on from the previous one, the window is discarded and reads are
+ * made on demand until sequential access is detected again.
+ */
+final class SftpReadAhead {
+
+	/**
+	 * Receives data read by {@link SftpReadAhead#readRange(SftpHandle, SftpChannel, long, long, int, int, DataSink)}.
+	 */
+	@FunctionalInterface
+	interface DataSink {
+		/**
+		 * Accept a block of data. The buffer is re-used once this method returns.
+		 *
+		 * @param offset offset in file the data was read from
+		 * @param buf buffer containing data
+		 * @param len number of bytes of data
+		 * @throws IOException on error
+		 */
+		void data(long offset, byte[] buf, int len) throws IOException;
+	}
+
+	final static class Request {
+		final long offset;
+		final int length;
+		final UnsignedInteger32 requestId;
+
+		Request(long offset, int length, UnsignedInteger32 requestId) {
+			this.offset = offset;
+			this.length = length;
+			this.requestId = requestId;
+		}
+	}
+
+	private final SftpHandle handle;
+	private final SftpChannel channel;
+	private final int window;
+	private final Deque<Request> pending = new ArrayDeque<>();
+
+	private int blockSize;
+	private long expected = -1;
+	private boolean sequential;
+	private long nextOffset;
+	private boolean eof;
+
+	private SftpMessage chunk;
+	private int chunkRemaining;
+
+	SftpReadAhead(SftpHandle handle, SftpChannel channel, int window, int blockSize) {
+		this.handle = handle;
+		this.channel = channel;
+		this.window = window;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Read from the handle at the given position, either on demand or from
+	 * the read-ahead window.
+	 *
+	 * @param position position in file
+	 * @param buf buffer to read into
+	 * @param off offset in buffer
+	 * @param len maximum number of bytes to read
+	 * @return number of bytes read or -1 at end of file
+	 * @throws SftpStatusException on SFTP error
+	 * @throws SshException on SSH error
+	 */
+	synchronized int read(long position, byte[] buf, int off, int len) throws SftpStatusException, SshException {
+		if (len == 0)
+			return 0;
+
+		if (position != expected) {
+			reset();
+			sequential = false;
+		} else if (!sequential) {
+			sequential = true;
+			nextOffset = position;
+		}
+
+		if (!sequential) {
+			var r = handle.read(position, buf, off, len);
+			if (r > 0)
+				expected = position + r;
+			return r;
+		}
+
+		var total = 0;
+		try {
+			while (total < len) {
+				if (chunk == null) {
+					if (!nextChunk()) {
+						break;
+					}
+					continue;
+				}
+				var n = chunk.read(buf, off + total, Math.min(len - total, chunkRemaining));
+				chunkRemaining -= n;
+				total += n;
+				if (chunkRemaining == 0)
+					releaseChunk();
+			}
+		} catch (SftpStatusException | SshException | RuntimeException e) {
+			/*
+			 * The failed request has already been taken from the window, so what is
+			 * left no longer lines up with the position. Throw it all away, so a retry
+			 * reads this block again rather than being given the next one.
+			 */
+			try {
+				reset();
+			} catch (SshException se) {
+				e.addSuppressed(se);
+			}
+			throw e;
+		}
+
+		if (total == 0)
+			return -1;
+
+		expected = position + total;
+		return total;
+	}
+
+	/**
+	 * Discard any outstanding requests and buffered data. Should be called before
+	 * anything that might change the content of the file, or when the handle is
+	 * about to be closed.
+	 *
+	 * @throws SshException on SSH error
+	 */
+	synchronized void reset() throws SshException {
+		releaseChunk();
+		eof = false;
+		expected = -1;
+		sequential = false;
+		discard();
+	}
+
+	private boolean nextChunk() throws SftpStatusException, SshException {
+		if (eof)
+			return false;
+
+		fill();
+
+		var req = pending.poll();
+		if (req == null)
+			return false;
+
+		var msg = channel.getResponse(req.requestId);
+		var length = dataLength(channel, msg);
+		if (length == -1) {
+			eof = true;
+			discard();
+			return false;
+		}
+
+		if (length > 0) {
+			chunk = msg;
+			chunkRemaining = length;
+		}
+		else
+			msg.release();
+
+		if (length < req.length) {
+			/*
+			 * A short read that is not the end of the file. Anything already requested
+			 * beyond this is now at the wrong offset, so throw it away and continue
+			 * from where the server stopped. The server probably has a smaller maximum
+			 * request size than we asked for, so use that from now on.
+			 */
+			discard();
+			if (length > 0)
+				blockSize = length;
+			nextOffset = req.offset + length;
+		}
+		return true;
+	}
+
+	private void releaseChunk() {
+		if (chunk != null) {
+			chunk.release();
+			chunk = null;
+		}
+	}
+
+	private void fill() throws SftpStatusException, SshException {
+		while (pending.size() < window) {
+			var id = handle.postReadRequest(nextOffset, blockSize);
+			pending.add(new Request(nextOffset, blockSize, id));
+			nextOffset += blockSize;
+		}
+	}
+
+	private void discard() throws SshException {
+		discard(channel, pending);
+	}
+
+	/**
+	 * Read a range of a file with a window of block sized requests outstanding,
+	 * passing each block to a sink in order. Reads stop at the end of the range or
+	 * the end of the file. A short read that is not the end of the file causes the
+	 * window to be re-posted from where the server stopped.
+	 *
+	 * @param handle handle
+	 * @param channel channel
+	 * @param position position to start reading from
+	 * @param count maximum number of bytes to read
+	 * @param blockSize size of each request
+	 * @param window maximum number of outstanding requests
+	 * @param sink sink
+	 * @return number of bytes read
+	 * @throws IOException on error from sink
+	 * @throws SftpStatusException on SFTP error
+	 * @throws SshException on SSH error
+	 */
+	static long readRange(SftpHandle handle, SftpChannel channel, long position, long count, int blockSize, int window,
+			DataSink sink) throws IOException, SftpStatusException, SshException {
+		var pending = new ArrayDeque<Request>();
+		var buf = new byte[blockSize];
+		var size = blockSize;
+		var next = position;
+		var end = count == Long.MAX_VALUE ? Long.MAX_VALUE : position + count;
+		long read = 0;
+		try {
+			while (true) {
+				while (pending.size() < window && next < end) {
+					var n = (int) Math.min(size, end - next);
+					pending.add(new Request(next, n, handle.postReadRequest(next, n)));
+					next += n;
+				}
+
+				var req = pending.poll();
+				if (req == null)
+					break;
+
+				var msg = channel.getResponse(req.requestId);
+				var len = dataLength(channel, msg);
+				if (len == -1)
+					break;
+
+				int n;
+				try {
+					n = Math.max(0, msg.read(buf, 0, Math.min(len, req.length)));
+				} finally {
+					msg.release();
+				}
+				sink.data(req.offset, buf, n);
+				read += n;
+
+				if (n < req.length) {
+					if (n == 0)
+						break;
+					discard(channel, pending);
+					next = req.offset + n;
+					size = n;
+				}
+			}
+		} finally {
+			discard(channel, pending);
+		}
+		return read;
+	}
+
+	/**
+	 * Wait for and throw away the responses to any outstanding read requests.
+	 *
+	 * @param channel channel
+	 * @param pending outstanding requests
+	 * @throws SshException on SSH error
+	 */
+	static void discard(SftpChannel channel, Deque<Request> pending) throws SshException {
+		SshException error = null;
+		Request req;
+		while ((req = pending.poll()) != null) {
+			try {
+				channel.getResponse(req.requestId).release();
+			} catch (SshException e) {
+				if (error == null)
+					error = e;
+			}
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Interpret the response to a read request, leaving the message positioned at
+	 * the start of the data so it may be read directly into the callers buffer
+	 * without an intermediate copy. If the response is an error or end of file,
+	 * the message is released.
+	 *
+	 * @param channel channel
+	 * @param msg response message
+	 * @return length of data, or -1 at end of file
+	 * @throws SftpStatusException on SFTP error
+	 * @throws SshException on SSH error
+	 */
+	static int dataLength(SftpChannel channel, SftpMessage msg) throws SftpStatusException, SshException {
+		var release = true;
+		try {
+			if (msg.getType() == SftpChannel.SSH_FXP_DATA) {
+				release = false;
+				return (int) msg.readInt();
+			} else if (msg.getType() == SftpChannel.SSH_FXP_STATUS) {
+				var status = (int) msg.readInt();
+				if (status == SftpStatusException.SSH_FX_EOF)
+					return -1;
+				else if (channel.getVersion() >= 3)
+					throw new SftpStatusException(status, msg.readString());
+				else
+					throw new SftpStatusException(status);
+			} else {
+				throw new SshException("The server responded with an unexpected message", SshException.CHANNEL_FAILURE);
+			}
+		} catch (IOException e) {
+			release = true;
+			throw new SshException(e);
+		} finally {
+			if (release)
+				msg.release();
+		}
+	}
+}
@@ -0,0 +1,426 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import static com.sshtools.synergy.niofs.SftpFileSystem.toAbsolutePathString;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.CopyOption;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.common.sftp.SftpFileAttributes.SftpFileAttributesBuilder;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+
+/**
+ * Transfers a single large file between an SFTP file system and another file
+ * system by splitting it into a number of ranges (segments), and transferring
+ * each segment concurrently using its own handle, and where possible its own
+ * SFTP channel (see {@link SftpFileSystem#getMaxChannels()}). Within each
+ * segment, requests are pipelined as for any other transfer.
+ * <p>
+ * A segment that fails is retried from the point it reached, up to the
+ * configured number of times, before the whole transfer fails.
+ *
+ * <pre>
+ * var transfer = SftpSegmentedTransferBuilder.create().
+ * 		withSegments(8).
+ * 		withProgress(bytes -&gt; total.addAndGet(bytes)).
+ * 		build();
+ * transfer.download(remotePath, localPath);
+ * transfer.upload(localPath, remotePath, StandardCopyOption.REPLACE_EXISTING);
+ * </pre>
+ */
+public final class SftpSegmentedTransfer {
+
+	public final static class SftpSegmentedTransferBuilder {
+		private int segments = 4;
+		private long minimumSegmentSize = 1024 * 1024;
+		private int retries = 2;
+		private Optional<LongConsumer> progress = Optional.empty();
+		private boolean preallocate;
+
+		public static SftpSegmentedTransferBuilder create() {
+			return new SftpSegmentedTransferBuilder();
+		}
+
+		private SftpSegmentedTransferBuilder() {
+		}
+
+		/**
+		 * The maximum number of segments to split a file into.
+		 *
+		 * @param segments segments
+		 * @return this for chaining
+		 */
+		public SftpSegmentedTransferBuilder withSegments(int segments) {
+			if (segments < 1)
+				throw new IllegalArgumentException("Must be at least one segment.");
+			this.segments = segments;
+			return this;
+		}
+
+		/**
+		 * The minimum size of a segment. Smaller files will be split into fewer
+		 * segments than requested.
+		 *
+		 * @param minimumSegmentSize minimum segment size
+		 * @return this for chaining
+		 */
+		public SftpSegmentedTransferBuilder withMinimumSegmentSize(long minimumSegmentSize) {
+			if (minimumSegmentSize < 1)
+				throw new IllegalArgumentException("Minimum segment size must be at least 1.");
+			this.minimumSegmentSize = minimumSegmentSize;
+			return this;
+		}
+
+		/**
+		 * The number of times a failed segment will be retried.
+		 *
+		 * @param retries retries
+		 * @return this for chaining
+		 */
+		public SftpSegmentedTransferBuilder withRetries(int retries) {
+			if (retries < 0)
+				throw new IllegalArgumentException("Retries may not be negative.");
+			this.retries = retries;
+			return this;
+		}
+
+		/**
+		 * A consumer that is passed the number of bytes transferred each time a block
+		 * completes. It will be called from multiple threads.
+		 *
+		 * @param progress progress
+		 * @return this for chaining
+		 */
+		public SftpSegmentedTransferBuilder withProgress(LongConsumer progress) {
+			this.progress = Optional.of(progress);
+			return this;
+		}
+
+		/**
+		 * When uploading, set the size of the remote file before any data is
+		 * written, so servers that support it may allocate all space up front.
+		 *
+		 * @param preallocate pre-allocate
+		 * @return this for chaining
+		 */
+		public SftpSegmentedTransferBuilder withPreallocate(boolean preallocate) {
+			this.preallocate = preallocate;
+			return this;
+		}
+
+		/**
+		 * When uploading, set the size of the remote file before any data is
+		 * written.
+		 *
+		 * @return this for chaining
+		 */
+		public SftpSegmentedTransferBuilder withPreallocate() {
+			return withPreallocate(true);
+		}
+
+		public SftpSegmentedTransfer build() {
+			return new SftpSegmentedTransfer(this);
+		}
+	}
+
+	@FunctionalInterface
+	private interface SegmentTask {
+		void run(Segment segment) throws IOException;
+	}
+
+	private final static class Segment {
+		private final long end;
+		private volatile long position;
+
+		private Segment(long position, long end) {
+			this.position = position;
+			this.end = end;
+		}
+	}
+
+	private final int segments;
+	private final long minimumSegmentSize;
+	private final int retries;
+	private final Optional<LongConsumer> progress;
+	private final boolean preallocate;
+
+	private SftpSegmentedTransfer(SftpSegmentedTransferBuilder builder) {
+		this.segments = builder.segments;
+		this.minimumSegmentSize = builder.minimumSegmentSize;
+		this.retries = builder.retries;
+		this.progress = builder.progress;
+		this.preallocate = builder.preallocate;
+	}
+
+	/**
+	 * Download a remote file to a path on any other file system. When
+	 * {@link StandardCopyOption#COPY_ATTRIBUTES} is given, the times and (where
+	 * the target supports them) the permissions are copied from the attributes
+	 * read before the transfer started.
+	 *
+	 * @param source remote source file
+	 * @param target target file
+	 * @param options options, only {@link StandardCopyOption#REPLACE_EXISTING} and
+	 *                {@link StandardCopyOption#COPY_ATTRIBUTES} are supported
+	 * @return number of bytes transferred
+	 * @throws IOException on error
+	 */
+	public long download(Path source, Path target, CopyOption... options) throws IOException {
+		var src = sftpPath(source);
+		var fs = src.getFileSystem();
+		var path = toAbsolutePathString(src);
+		var attrs = Files.readAttributes(src, PosixFileAttributes.class);
+		if (attrs.isDirectory())
+			throw new FileSystemException(source.toString(), null, "Is a directory.");
+		var size = attrs.size();
+
+		try (var out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+				replaceExisting(options) ? StandardOpenOption.CREATE : StandardOpenOption.CREATE_NEW)) {
+			run(fs, size, seg -> downloadSegment(fs, path, seg, out));
+		}
+
+		if (Arrays.asList(options).contains(StandardCopyOption.COPY_ATTRIBUTES)) {
+			Files.getFileAttributeView(target, BasicFileAttributeView.class).setTimes(attrs.lastModifiedTime(),
+					attrs.lastAccessTime(), null);
+			var posix = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+			if (posix != null)
+				posix.setPermissions(attrs.permissions());
+		}
+		return size;
+	}
+
+	/**
+	 * Upload a file on any other file system to a remote path. The remote file is
+	 * created (or truncated) first, then each segment is written through its own
+	 * handle. Finally the size, and when {@link StandardCopyOption#COPY_ATTRIBUTES}
+	 * is given the times and permissions, are set in a single request.
+	 *
+	 * @param source source file
+	 * @param target remote target file
+	 * @param options options, only {@link StandardCopyOption#REPLACE_EXISTING} and
+	 *                {@link StandardCopyOption#COPY_ATTRIBUTES} are supported
+	 * @return number of bytes transferred
+	 * @throws IOException on error
+	 */
+	public long upload(Path source, Path target, CopyOption... options) throws IOException {
+		var tgt = sftpPath(target);
+		var fs = tgt.getFileSystem();
+		var path = toAbsolutePathString(tgt);
+		var attrs = Files.readAttributes(source, BasicFileAttributes.class);
+		if (attrs.isDirectory())
+			throw new FileSystemException(source.toString(), null, "Is a directory.");
+		var size = attrs.size();
+		var sftp = fs.getSftp();
+
+		try {
+			var flags = SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE;
+			if (!replaceExisting(options))
+				flags |= SftpChannel.OPEN_EXCLUSIVE;
+			try (var handle = sftp.openFile(path, flags)) {
+				if (preallocate && size > 0)
+					handle.setAttributes(SftpFileAttributesBuilder.create().withSize(size).build());
+			}
+
+			try (var in = FileChannel.open(source, StandardOpenOption.READ)) {
+				run(fs, size, seg -> uploadSegment(fs, path, seg, in));
+			}
+
+			var bldr = SftpFileAttributesBuilder.create().withSize(size);
+			if (Arrays.asList(options).contains(StandardCopyOption.COPY_ATTRIBUTES)) {
+				bldr.withLastModifiedTime(attrs.lastModifiedTime());
+				bldr.withLastAccessTime(attrs.lastAccessTime());
+				var posix = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+				if (posix != null)
+					bldr.withPermissions(posix.readAttributes().permissions());
+			}
+			sftp.getSubsystemChannel().setAttributes(path, bldr.build());
+		} catch (SftpStatusException | SshException e) {
+			throw SftpFileSystemProvider.translateException(e);
+		} finally {
+			fs.getAttributeCache().invalidate(path);
+		}
+		return size;
+	}
+
+	private void uploadSegment(SftpFileSystem fs, String path, Segment seg, FileChannel in) throws IOException {
+		var pool = fs.getClientPool();
+		var client = pool.acquire();
+		var broken = true;
+		try (var handle = client.openFile(path, SftpChannel.OPEN_WRITE)) {
+			var blockSize = fs.getBlockSize();
+			var window = fs.getTransferWindow();
+			var writer = new SftpWriteBehind(handle, client.getSubsystemChannel(), window, (long) window * blockSize,
+					blockSize, len -> {
+						seg.position += len;
+						progress.ifPresent(p -> p.accept(len));
+					});
+			var bb = ByteBuffer.allocate(blockSize);
+			var pos = seg.position;
+			try {
+				while (pos < seg.end) {
+					bb.clear();
+					bb.limit((int) Math.min(blockSize, seg.end - pos));
+					var n = in.read(bb, pos);
+					if (n < 1)
+						break;
+					writer.write(pos, bb.array(), 0, n);
+					pos += n;
+				}
+			} finally {
+				writer.drain();
+			}
+			broken = false;
+			if (pos < seg.end)
+				throw new EOFException(String.format("The local file ended at %d, before the end of the segment at %d.", pos, seg.end));
+		} catch (SftpStatusException e) {
+			broken = false;
+			throw SftpFileSystemProvider.translateException(e);
+		} catch (SshException e) {
+			throw SftpFileSystemProvider.translateException(e);
+		} finally {
+			pool.release(client, broken);
+		}
+	}
+
+	private void downloadSegment(SftpFileSystem fs, String path, Segment seg, FileChannel out) throws IOException {
+		var pool = fs.getClientPool();
+		var client = pool.acquire();
+		var broken = true;
+		try (var handle = client.openFile(path, SftpChannel.OPEN_READ)) {
+			SftpReadAhead.readRange(handle, client.getSubsystemChannel(), seg.position, seg.end - seg.position,
+					fs.getBlockSize(), fs.getTransferWindow(), (offset, buf, len) -> {
+						var bb = ByteBuffer.wrap(buf, 0, len);
+						while (bb.hasRemaining())
+							out.write(bb, offset + bb.position());
+						seg.position = offset + len;
+						progress.ifPresent(p -> p.accept(len));
+					});
+			broken = false;
+			if (seg.position < seg.end)
+				throw new EOFException(String.format("%s ended at %d, before the end of the segment at %d.", path, seg.position, seg.end));
+		} catch (SftpStatusException e) {
+			broken = false;
+			throw SftpFileSystemProvider.translateException(e);
+		} catch (SshException e) {
+			throw SftpFileSystemProvider.translateException(e);
+		} finally {
+			pool.release(client, broken);
+		}
+	}
+
+	private void run(SftpFileSystem fs, long size, SegmentTask task) throws IOException {
+		var segs = plan(size);
+		if (segs.size() == 1) {
+			attempt(segs.get(0), task);
+			return;
+		}
+
+		var executor = fs.getExecutor();
+		var futures = new ArrayList<Future<?>>();
+		for (var seg : segs) {
+			futures.add(executor.submit(() -> {
+				attempt(seg, task);
+				return null;
+			}));
+		}
+
+		IOException error = null;
+		for (var future : futures) {
+			try {
+				future.get();
+			} catch (CancellationException ce) {
+			} catch (ExecutionException ee) {
+				if (error == null) {
+					futures.forEach(f -> f.cancel(true));
+					var cause = ee.getCause();
+					if (cause instanceof Error)
+						throw (Error) cause;
+					error = SftpFileSystemProvider.translateException((Exception) cause);
+				}
+			} catch (InterruptedException ie) {
+				futures.forEach(f -> f.cancel(true));
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		if (error != null)
+			throw error;
+	}
+
+	private void attempt(Segment seg, SegmentTask task) throws IOException {
+		for (int attempt = 0;; attempt++) {
+			try {
+				task.run(seg);
+				return;
+			} catch (IOException ioe) {
+				/* Errors such as missing files or permissions will not go away */
+				if (attempt >= retries || ioe instanceof FileSystemException)
+					throw ioe;
+			}
+		}
+	}
+
+	private List<Segment> plan(long size) {
+		var count = (int) Math.max(1, Math.min(segments, size / minimumSegmentSize));
+		var segSize = size / count;
+		var l = new ArrayList<Segment>(count);
+		for (int i = 0; i < count; i++) {
+			var start = i * segSize;
+			l.add(new Segment(start, i == count - 1 ? size : start + segSize));
+		}
+		return l;
+	}
+
+	private static boolean replaceExisting(CopyOption... options) {
+		return Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static SftpPath sftpPath(Path path) {
+		if (!(path instanceof SftpPath))
+			throw new ProviderMismatchException("Path is not an SFTP path: " + path);
+		return (SftpPath) path;
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import static com.sshtools.synergy.niofs.SftpFileSystem.toAbsolutePathString;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+
+/**
+ * Deletes a remote file tree. Each directory is listed once, and the
+ * attributes returned with the listing are used to tell files from
+ * directories, so nothing else is asked of the server before deleting. Files
+ * are removed as they are listed, with up to
+ * {@link SftpFileSystem#getRequestWindow()} requests outstanding at a time.
+ * Each directory is removed as soon as everything inside it has been.
+ * <p>
+ * A number of directories may be emptied at the same time, each using a client
+ * borrowed from the file system's pool (see
+ * {@link SftpFileSystem#getMaxChannels()}). Symbolic links are removed, never
+ * followed.
+ *
+ * <pre>
+ * var deleter = SftpTreeDeleterBuilder.create().
+ * 		withParallelism(8).
+ * 		build();
+ * var deleted = deleter.delete(remotePath);
+ * </pre>
+ */
+public final class SftpTreeDeleter {
+
+	public final static class SftpTreeDeleterBuilder {
+		private int parallelism = 1;
+
+		public static SftpTreeDeleterBuilder create() {
+			return new SftpTreeDeleterBuilder();
+		}
+
+		private SftpTreeDeleterBuilder() {
+		}
+
+		/**
+		 * The maximum number of directories that will be emptied at the same
+		 * time.
+		 *
+		 * @param parallelism parallelism
+		 * @return this for chaining
+		 */
+		public SftpTreeDeleterBuilder withParallelism(int parallelism) {
+			if (parallelism < 1)
+				throw new IllegalArgumentException("Parallelism must be at least 1.");
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		public SftpTreeDeleter build() {
+			return new SftpTreeDeleter(this);
+		}
+	}
+
+	private final int parallelism;
+
+	private SftpTreeDeleter(SftpTreeDeleterBuilder builder) {
+		this.parallelism = builder.parallelism;
+	}
+
+	/**
+	 * Delete a path and, if it is a directory, everything inside it. This
+	 * method returns when the whole tree has been deleted, or throws the first
+	 * error encountered, in which case some of the tree may remain.
+	 *
+	 * @param start path to delete
+	 * @return number of paths deleted, including the starting path
+	 * @throws IOException on error
+	 */
+	public long delete(Path start) throws IOException {
+		var root = sftpPath(start);
+		var rootStr = toAbsolutePathString(root);
+		if (rootStr.equals("/"))
+			throw new IOException("Cannot delete root path.");
+		var fs = root.getFileSystem();
+		try {
+			var attrs = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (!attrs.isDirectory()) {
+				fs.provider().delete(root);
+				return 1;
+			}
+			return new Delete(fs).run(new Directory(rootStr, null));
+		} finally {
+			fs.getAttributeCache().invalidateTree(rootStr);
+		}
+	}
+
+	private final static class Directory {
+		private final String path;
+		private final Directory parent;
+
+		/* Sub-directories not yet removed, plus one until listed */
+		private int remaining = 1;
+
+		private Directory(String path, Directory parent) {
+			this.path = path;
+			this.parent = parent;
+		}
+	}
+
+	private final class Delete {
+		private final SftpFileSystem fs;
+		private final Deque<Directory> directories = new ArrayDeque<>();
+		private final AtomicLong deleted = new AtomicLong();
+
+		private int active;
+		private Exception error;
+
+		private Delete(SftpFileSystem fs) {
+			this.fs = fs;
+		}
+
+		private long run(Directory root) throws IOException {
+			directories.push(root);
+
+			/* The calling thread is one of the workers */
+			var executor = fs.getExecutor();
+			var workers = new ArrayList<Future<?>>();
+			for (int i = 1; i < parallelism; i++) {
+				workers.add(executor.submit(this::work));
+			}
+			work();
+
+			try {
+				for (var worker : workers) {
+					worker.get();
+				}
+			} catch (InterruptedException e) {
+				synchronized (this) {
+					if (error == null)
+						error = new InterruptedIOException();
+					notifyAll();
+				}
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw new IOException("Delete failed.", e.getCause());
+			}
+
+			synchronized (this) {
+				if (error != null)
+					throw SftpFileSystemProvider.translateException(error);
+			}
+			return deleted.get();
+		}
+
+		private void work() {
+			while (true) {
+				Directory dir;
+				synchronized (this) {
+					while (directories.isEmpty() && active > 0 && error == null) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							if (error == null)
+								error = new InterruptedIOException();
+							notifyAll();
+							return;
+						}
+					}
+					if (directories.isEmpty() || error != null) {
+						notifyAll();
+						return;
+					}
+					dir = directories.pop();
+					active++;
+				}
+
+				try {
+					empty(dir);
+				} catch (IOException | RuntimeException e) {
+					failed(e);
+				} finally {
+					synchronized (this) {
+						active--;
+						notifyAll();
+					}
+				}
+			}
+		}
+
+		private void empty(Directory dir) throws IOException {
+			var pool = fs.getClientPool();
+			var client = pool.acquire();
+			var broken = true;
+			try {
+				var pipeline = new SftpPipeline(client.getSubsystemChannel(), fs.getRequestWindow());
+				try {
+					SftpTreeWalker.list(client, fs.getPath(dir.path), (filename, attrs) -> {
+						if (failed())
+							return;
+						var child = dir.path.endsWith("/") ? dir.path + filename : dir.path + "/" + filename;
+						if (attrs != null && attrs.isDirectory()) {
+							synchronized (this) {
+								dir.remaining++;
+								directories.push(new Directory(child, dir));
+								notify();
+							}
+						} else {
+							pipeline.remove(child, (v, error) -> removed(child, error));
+						}
+					});
+				} finally {
+					pipeline.drain();
+				}
+
+				/* Remove this directory and any parents that are now empty */
+				var next = dir;
+				while (next != null && !failed()) {
+					synchronized (this) {
+						if (--next.remaining > 0)
+							break;
+					}
+					var path = next.path;
+					pipeline.removeDirectory(path, (v, error) -> removed(path, error));
+					pipeline.drain();
+					next = next.parent;
+				}
+				broken = false;
+			} catch (SftpStatusException e) {
+				broken = false;
+				throw SftpFileSystemProvider.translateException(e);
+			} catch (SshException e) {
+				throw SftpFileSystemProvider.translateException(e);
+			} finally {
+				pool.release(client, broken);
+			}
+		}
+
+		private void removed(String path, IOException error) {
+			if (error == null)
+				deleted.incrementAndGet();
+			else
+				failed(SftpPipeline.toException(error, path));
+		}
+
+		private synchronized void failed(Exception e) {
+			if (error == null)
+				error = e;
+			notifyAll();
+		}
+
+		private synchronized boolean failed() {
+			return error != null;
+		}
+	}
+
+	private static SftpPath sftpPath(Path path) {
+		if (!(path instanceof SftpPath))
+			throw new ProviderMismatchException("Path is not an SFTP path: " + path);
+		return (SftpPath) path;
+	}
+}
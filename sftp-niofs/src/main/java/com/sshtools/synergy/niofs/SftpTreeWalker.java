@@ -0,0 +1,462 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import static com.sshtools.synergy.niofs.SftpFileSystem.toAbsolutePathString;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+
+/**
+ * Walks a remote file tree with a number of directories being listed at the
+ * same time, each using a client borrowed from the file system's pool (see
+ * {@link SftpFileSystem#getMaxChannels()}).
+ * <p>
+ * Every path passed to the consumer carries the attributes returned by the
+ * listing it came from, so querying them does not cost another round trip
+ * (see {@link SftpFileSystem#getListingAttributesTtl()}). Symbolic links are
+ * reported but never followed. Unlike {@link Files#walk(Path, java.nio.file.FileVisitOption...)},
+ * paths are not reported in any particular order.
+ *
+ * <pre>
+ * var walker = SftpTreeWalkerBuilder.create().
+ * 		withParallelism(8).
+ * 		withPrune(dir -&gt; dir.getFileName().toString().equals(".git")).
+ * 		build();
+ * try(var stream = walker.stream(remotePath)) {
+ * 	stream.filter(Files::isRegularFile).forEach(System.out::println);
+ * }
+ * </pre>
+ */
+public final class SftpTreeWalker {
+
+	public final static class SftpTreeWalkerBuilder {
+		private int parallelism = 4;
+		private int maxDepth = Integer.MAX_VALUE;
+		private Optional<Predicate<Path>> prune = Optional.empty();
+		private Optional<String> glob = Optional.empty();
+
+		public static SftpTreeWalkerBuilder create() {
+			return new SftpTreeWalkerBuilder();
+		}
+
+		private SftpTreeWalkerBuilder() {
+		}
+
+		/**
+		 * The maximum number of directories that will be listed at the same time.
+		 *
+		 * @param parallelism parallelism
+		 * @return this for chaining
+		 */
+		public SftpTreeWalkerBuilder withParallelism(int parallelism) {
+			if (parallelism < 1)
+				throw new IllegalArgumentException("Parallelism must be at least 1.");
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * The maximum number of directory levels to visit. Zero means only the
+		 * starting path is reported, one that only its immediate children are.
+		 *
+		 * @param maxDepth maximum depth
+		 * @return this for chaining
+		 */
+		public SftpTreeWalkerBuilder withMaxDepth(int maxDepth) {
+			if (maxDepth < 0)
+				throw new IllegalArgumentException("Maximum depth may not be negative.");
+			this.maxDepth = maxDepth;
+			return this;
+		}
+
+		/**
+		 * A predicate that is tested against each directory found. If it returns
+		 * <code>true</code>, the directory itself is still reported but nothing
+		 * inside it is listed.
+		 *
+		 * @param prune prune predicate
+		 * @return this for chaining
+		 */
+		public SftpTreeWalkerBuilder withPrune(Predicate<Path> prune) {
+			this.prune = Optional.of(prune);
+			return this;
+		}
+
+		/**
+		 * Only report paths that match a glob, relative to the starting path. The
+		 * glob is matched against the file names returned by each listing before
+		 * any {@link Path} is created, and directories that cannot contain a match
+		 * (for example those not under the literal part of
+		 * <code>logs/2024/&#42;&#42;/&#42;.gz</code>) are not listed at all. See
+		 * {@link SftpFileSystems#newDirectoryStream(Path, String)} for the syntax.
+		 * The starting path itself is not reported when a glob is used.
+		 *
+		 * @param glob glob
+		 * @return this for chaining
+		 */
+		public SftpTreeWalkerBuilder withGlob(String glob) {
+			this.glob = Optional.of(glob);
+			return this;
+		}
+
+		public SftpTreeWalker build() {
+			return new SftpTreeWalker(this);
+		}
+	}
+
+	/**
+	 * Receives the entries of a directory listing.
+	 */
+	@FunctionalInterface
+	interface EntryConsumer {
+		/**
+		 * Accept an entry. The special <code>.</code> and <code>..</code> entries
+		 * are never passed.
+		 *
+		 * @param filename file name
+		 * @param attributes attributes returned with the entry
+		 * @throws IOException on error
+		 */
+		void entry(String filename, SftpFileAttributes attributes) throws IOException;
+	}
+
+	private final static Object END = new Object();
+
+	private final int parallelism;
+	private final int maxDepth;
+	private final Optional<Predicate<Path>> prune;
+	private final Optional<String> glob;
+
+	private SftpTreeWalker(SftpTreeWalkerBuilder builder) {
+		this.parallelism = builder.parallelism;
+		this.maxDepth = builder.maxDepth;
+		this.prune = builder.prune;
+		this.glob = builder.glob;
+	}
+
+	/**
+	 * Walk a file tree, passing every path found, starting with the starting
+	 * path itself, to a consumer. The consumer will be called from multiple
+	 * threads at the same time. This method returns when the whole tree has been
+	 * walked, or throws the first error encountered.
+	 *
+	 * @param start starting path
+	 * @param consumer consumer
+	 * @throws IOException on error
+	 */
+	public void walk(Path start, Consumer<Path> consumer) throws IOException {
+		var root = sftpPath(start);
+		walk(root, Files.readAttributes(root, BasicFileAttributes.class), consumer, new AtomicBoolean());
+	}
+
+	/**
+	 * Walk a file tree in the background, returning a lazily populated stream of
+	 * every path found, starting with the starting path itself. The stream should
+	 * be closed, which stops the walk if it has not finished. Errors are thrown
+	 * from the stream as {@link UncheckedIOException}.
+	 *
+	 * @param start starting path
+	 * @return stream of paths
+	 * @throws IOException if the starting path cannot be read
+	 */
+	public Stream<Path> stream(Path start) throws IOException {
+		var root = sftpPath(start);
+		var attrs = Files.readAttributes(root, BasicFileAttributes.class);
+		var results = new LinkedBlockingQueue<Object>(1024);
+		var cancelled = new AtomicBoolean();
+
+		root.getFileSystem().getExecutor().execute(() -> {
+			Object end = END;
+			try {
+				walk(root, attrs, path -> put(results, path, cancelled), cancelled);
+			} catch (IOException | RuntimeException e) {
+				end = e;
+			}
+			put(results, end, cancelled);
+		});
+
+		var it = new Iterator<Path>() {
+			Object next;
+			boolean done;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null && !done) {
+					try {
+						next = results.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new UncheckedIOException(new InterruptedIOException());
+					}
+					if (next == END) {
+						done = true;
+						next = null;
+					} else if (next instanceof IOException) {
+						done = true;
+						throw new UncheckedIOException((IOException) next);
+					} else if (next instanceof RuntimeException) {
+						done = true;
+						throw (RuntimeException) next;
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Path next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				try {
+					return (Path) next;
+				} finally {
+					next = null;
+				}
+			}
+		};
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.DISTINCT | Spliterator.NONNULL), false)
+				.onClose(() -> {
+					cancelled.set(true);
+					results.clear();
+				});
+	}
+
+	private void walk(SftpPath root, BasicFileAttributes attrs, Consumer<Path> consumer, AtomicBoolean cancelled)
+			throws IOException {
+		if (glob.isEmpty())
+			consumer.accept(root);
+		if (!attrs.isDirectory() || maxDepth == 0 || prune.map(p -> p.test(root)).orElse(false))
+			return;
+		var fs = root.getFileSystem();
+		new Walk(fs, glob.map(g -> SftpGlob.compile(fs, g)).orElse(null), consumer, cancelled).run(root);
+	}
+
+	private final static class Directory {
+		private final SftpPath path;
+		private final List<String> names;
+
+		private Directory(SftpPath path, List<String> names) {
+			this.path = path;
+			this.names = names;
+		}
+	}
+
+	private final class Walk {
+		private final SftpFileSystem fs;
+		private final SftpGlob matcher;
+		private final Consumer<Path> consumer;
+		private final AtomicBoolean cancelled;
+		private final Deque<Directory> directories = new ArrayDeque<>();
+
+		private int active;
+		private Exception error;
+
+		private Walk(SftpFileSystem fs, SftpGlob matcher, Consumer<Path> consumer, AtomicBoolean cancelled) {
+			this.fs = fs;
+			this.matcher = matcher;
+			this.consumer = consumer;
+			this.cancelled = cancelled;
+		}
+
+		private void run(SftpPath root) throws IOException {
+			directories.push(new Directory(root, List.of()));
+
+			/* The calling thread is one of the workers */
+			var executor = fs.getExecutor();
+			var workers = new ArrayList<Future<?>>();
+			for (int i = 1; i < parallelism; i++) {
+				workers.add(executor.submit(this::work));
+			}
+			work();
+
+			try {
+				for (var worker : workers) {
+					worker.get();
+				}
+			} catch (InterruptedException e) {
+				cancelled.set(true);
+				synchronized (this) {
+					notifyAll();
+				}
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw new IOException("Walk failed.", e.getCause());
+			}
+
+			synchronized (this) {
+				if (error != null)
+					throw SftpFileSystemProvider.translateException(error);
+			}
+		}
+
+		private void work() {
+			while (true) {
+				Directory dir;
+				synchronized (this) {
+					while (directories.isEmpty() && active > 0 && error == null && !cancelled.get()) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							if (error == null)
+								error = new InterruptedIOException();
+							notifyAll();
+							return;
+						}
+					}
+					if (directories.isEmpty() || error != null || cancelled.get()) {
+						notifyAll();
+						return;
+					}
+					dir = directories.pop();
+					active++;
+				}
+
+				try {
+					list(dir);
+				} catch (IOException | RuntimeException e) {
+					synchronized (this) {
+						if (error == null)
+							error = e;
+					}
+				} finally {
+					synchronized (this) {
+						active--;
+						notifyAll();
+					}
+				}
+			}
+		}
+
+		private void list(Directory dir) throws IOException {
+			var pool = fs.getClientPool();
+			var client = pool.acquire();
+			var broken = true;
+			try {
+				SftpTreeWalker.list(client, dir.path, (filename, attrs) -> {
+					if (cancelled.get())
+						return;
+					SftpPath child = null;
+					if (matcher == null || matcher.matches(dir.names, filename)) {
+						child = ((SftpPath) dir.path.resolve(filename)).withAttributes(attrs);
+						consumer.accept(child);
+					}
+					if (attrs != null && attrs.isDirectory() && dir.names.size() + 1 < maxDepth
+							&& (matcher == null || matcher.mayContain(dir.names, filename))) {
+						if (child == null)
+							child = ((SftpPath) dir.path.resolve(filename)).withAttributes(attrs);
+						if (prune.isEmpty() || !prune.get().test(child)) {
+							var names = new ArrayList<String>(dir.names.size() + 1);
+							names.addAll(dir.names);
+							names.add(filename);
+							synchronized (this) {
+								directories.push(new Directory(child, names));
+								notify();
+							}
+						}
+					}
+				});
+				broken = false;
+			} catch (SftpStatusException e) {
+				broken = false;
+				throw SftpFileSystemProvider.translateException(e);
+			} catch (SshException e) {
+				throw SftpFileSystemProvider.translateException(e);
+			} finally {
+				pool.release(client, broken);
+			}
+		}
+	}
+
+	/**
+	 * List a directory using the given client, passing each entry to a consumer
+	 * as each page of results arrives.
+	 *
+	 * @param client client
+	 * @param dir directory
+	 * @param consumer consumer
+	 * @throws IOException on error from consumer
+	 * @throws SftpStatusException on SFTP error
+	 * @throws SshException on SSH error
+	 */
+	static void list(SftpClient client, Path dir, EntryConsumer consumer) throws IOException, SftpStatusException, SshException {
+		try (var handle = client.getSubsystemChannel().openDirectory(toAbsolutePathString(dir))) {
+			var page = new ArrayList<SftpFile>();
+			while (handle.listChildren(page) != -1) {
+				for (var file : page) {
+					var filename = file.getFilename();
+					if (!filename.equals(".") && !filename.equals(".."))
+						consumer.entry(filename, file.attributes());
+				}
+				page.clear();
+			}
+		}
+	}
+
+	private static void put(LinkedBlockingQueue<Object> results, Object result, AtomicBoolean cancelled) {
+		try {
+			while (!cancelled.get()) {
+				if (results.offer(result, 100, TimeUnit.MILLISECONDS))
+					return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelled.set(true);
+		}
+	}
+
+	private static SftpPath sftpPath(Path path) {
+		if (!(path instanceof SftpPath))
+			throw new ProviderMismatchException("Path is not an SFTP path: " + path);
+		return (SftpPath) path;
+	}
+}
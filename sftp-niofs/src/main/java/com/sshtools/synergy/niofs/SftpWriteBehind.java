@@ -0,0 +1,194 @@
+/*
+ *    _           _             _   _
+ *   (_) __ _  __| | __ _ _ __ | |_(_)_   _____
+ *   | |/ _` |/ _` |/ _` | '_ \| __| \ \ / / _ \
+ *   | | (_| | (_| | (_| | |_) | |_| |\ V /  __/
+ *  _/ |\__,_|\__,_|\__,_| .__/ \__|_| \_/ \___|
+ * |__/                  |_|
+ *
+ * This file is part of the Maverick Synergy Hotfixes Java SSH API
+ *
+ * Unauthorized copying of this file, via any medium is strictly prohibited.
+ *
+ * Copyright (C) 2002-2023 JADAPTIVE Limited - All Rights Reserved
+ *
+ * Use of this software may also be covered by third-party licenses depending on the choices you make about what features to use.
+ *
+ * Please visit the link below to see additional third-party licenses and copyrights
+ *
+ * https://www.jadaptive.com/app/manpage/en/article/1565029/What-third-party-dependencies-does-the-Maverick-Synergy-API-have
+ */
+package com.sshtools.synergy.niofs;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.IntConsumer;
+
+import com.sshtools.client.sftp.SftpChannel;
+import com.sshtools.client.sftp.SftpHandle;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+
+/**
+ * Posts SSH_FXP_WRITE requests for a handle without waiting for each to be
+ * acknowledged, up to a maximum number of outstanding requests and a maximum
+ * number of outstanding bytes. Once either limit is reached, further writes
+ * block until the oldest request is acknowledged.
+ * <p>
+ * Because writes return before the server has confirmed them, any failure is
+ * reported by the next call to {@link #write(long, byte[], int, int)} or
+ * {@link #drain()}.
+ */
+final class SftpWriteBehind {
+
+	private final static class Request {
+		private final int length;
+		private final UnsignedInteger32 requestId;
+
+		private Request(int length, UnsignedInteger32 requestId) {
+			this.length = length;
+			this.requestId = requestId;
+		}
+	}
+
+	private final SftpHandle handle;
+	private final SftpChannel channel;
+	private final int maxRequests;
+	private final long maxBytes;
+	private final int blockSize;
+	private final Deque<Request> pending = new ArrayDeque<>();
+	private final IntConsumer acknowledged;
+
+	private long outstanding;
+	private Exception error;
+
+	SftpWriteBehind(SftpHandle handle, SftpChannel channel, int maxRequests, long maxBytes, int blockSize) {
+		this(handle, channel, maxRequests, maxBytes, blockSize, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param handle handle
+	 * @param channel channel
+	 * @param maxRequests maximum number of outstanding requests
+	 * @param maxBytes maximum number of outstanding bytes
+	 * @param blockSize maximum size of each request
+	 * @param acknowledged if not <code>null</code>, passed the length of each
+	 *                     write as it is acknowledged, in order, until the first
+	 *                     failure
+	 */
+	SftpWriteBehind(SftpHandle handle, SftpChannel channel, int maxRequests, long maxBytes, int blockSize,
+			IntConsumer acknowledged) {
+		this.acknowledged = acknowledged;
+		this.handle = handle;
+		this.channel = channel;
+		this.maxRequests = maxRequests;
+		this.maxBytes = maxBytes;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Queue a write at the given position, blocking only if the limits have been
+	 * reached. The data is copied before this method returns, so the caller is
+	 * free to re-use the buffer.
+	 *
+	 * @param position position in file
+	 * @param buf buffer to write from
+	 * @param off offset in buffer
+	 * @param len number of bytes to write
+	 * @throws SftpStatusException on SFTP error, including that of an earlier write
+	 * @throws SshException on SSH error, including that of an earlier write
+	 */
+	synchronized void write(long position, byte[] buf, int off, int len) throws SftpStatusException, SshException {
+		checkError();
+		while (len > 0) {
+			var n = Math.min(len, blockSize);
+			while (!pending.isEmpty() && (pending.size() >= maxRequests || outstanding + n > maxBytes)) {
+				acknowledge();
+			}
+			checkError();
+			pending.add(new Request(n, handle.postWriteRequest(position, buf, off, n)));
+			outstanding += n;
+			position += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Wait for all outstanding writes to be acknowledged, reporting the first
+	 * failure if there was one.
+	 *
+	 * @throws SftpStatusException on SFTP error
+	 * @throws SshException on SSH error
+	 */
+	synchronized void drain() throws SftpStatusException, SshException {
+		while (!pending.isEmpty()) {
+			acknowledge();
+		}
+		checkError();
+	}
+
+	/**
+	 * Copy the whole content of one handle to another, with a window of reads
+	 * outstanding on the source and a window of writes outstanding on the target
+	 * at the same time. The handles may belong to different channels, or even
+	 * different connections.
+	 *
+	 * @param source source handle
+	 * @param sourceChannel source channel
+	 * @param target target handle
+	 * @param targetChannel target channel
+	 * @param blockSize size of each request
+	 * @param window maximum number of outstanding requests in each direction
+	 * @return number of bytes copied
+	 * @throws IOException on error
+	 */
+	static long copy(SftpHandle source, SftpChannel sourceChannel, SftpHandle target, SftpChannel targetChannel,
+			int blockSize, int window) throws IOException {
+		var writer = new SftpWriteBehind(target, targetChannel, window, (long) window * blockSize, blockSize);
+		try {
+			try {
+				return SftpReadAhead.readRange(source, sourceChannel, 0, Long.MAX_VALUE, blockSize, window,
+						(offset, buf, len) -> {
+							try {
+								writer.write(offset, buf, 0, len);
+							} catch (SftpStatusException | SshException e) {
+								throw SftpFileSystemProvider.translateException(e);
+							}
+						});
+			} finally {
+				writer.drain();
+			}
+		} catch (SftpStatusException | SshException e) {
+			throw SftpFileSystemProvider.translateException(e);
+		}
+	}
+
+	private void acknowledge() {
+		var req = pending.poll();
+		outstanding -= req.length;
+		try {
+			channel.getOKRequestStatus(req.requestId);
+			if (error == null && acknowledged != null)
+				acknowledged.accept(req.length);
+		} catch (SftpStatusException | SshException e) {
+			if (error == null)
+				error = e;
+		}
+	}
+
+	private void checkError() throws SftpStatusException, SshException {
+		if (error != null) {
+			var e = error;
+			error = null;
+			if (e instanceof SftpStatusException)
+				throw (SftpStatusException) e;
+			else
+				throw (SshException) e;
+		}
+	}
+}